@@ -0,0 +1,143 @@
+package ru.sap.po.mapping.hrmd.filter;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import ru.sap.po.mapping.hrmd.filter.HrmdDocumentIndex.Person;
+
+/**
+ * Compares per-message cost of dropping 90% of persons from HRMD_A IDoc with per-node
+ * <code>removeChild</code>, <code>normalize</code> of the whole tree and the identity transformer
+ * (as the mapping did before) and with marks in {@link HrmdDocumentIndex}, which are skipped
+ * by {@link XmlSerializer} in one pass. Parsing is the same for both variants and is done before
+ * each invocation, so it is not measured.
+ *
+ * Run with <code>java -jar bench/target/benchmarks.jar DeferredRemovalBenchmark -prof gc</code>,
+ * the size of the message is set with <tt>-p persons=&lt;n&gt;</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeferredRemovalBenchmark {
+
+	/**
+	 * Every tenth person is kept, all the others are dropped.
+	 */
+	private static final int KEEP_EVERY = 10;
+
+	@Param("5000")
+	public int persons;
+
+	private byte[] payload;
+	private ByteArrayOutputStream os;
+	private HrmdDocumentIndex index;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		payload = createPayload(persons);
+		os = new ByteArrayOutputStream(payload.length);
+
+		// Both variants must produce the same target message
+		filter(parse(payload), os, false);
+		byte[] expected = os.toByteArray();
+		os.reset();
+		filter(parse(payload), os, true);
+		if (!Arrays.equals(expected, os.toByteArray())) {
+			throw new IllegalStateException("Target messages of removeChild and mark-and-sweep variants differ");
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void parseMessage() throws Exception {
+		index = parse(payload);
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream removeChild() throws Exception {
+		os.reset();
+		filter(index, os, false);
+		return os;
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream markAndSkip() throws Exception {
+		os.reset();
+		filter(index, os, true);
+		return os;
+	}
+
+	private static HrmdDocumentIndex parse(byte[] payload) throws Exception {
+		return HrmdDocumentIndex.build(XmlFactories.documentBuilder().parse(new ByteArrayInputStream(payload)));
+	}
+
+	private static void filter(HrmdDocumentIndex index, ByteArrayOutputStream os, boolean deferred) throws Exception {
+		Document doc = index.getDocument();
+		List<Person> indexed = index.getPersons();
+
+		if (deferred) {
+			for (int p = 0; p < indexed.size(); p++) {
+				if (p % KEEP_EVERY != 0) index.drop(indexed.get(p));
+			}
+			XmlSerializer serializer = new XmlSerializer(new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8)));
+			serializer.writeNode(doc, index::isDropped);
+			serializer.flush();
+		} else {
+			for (int p = 0; p < indexed.size(); p++) {
+				if (p % KEEP_EVERY == 0) continue;
+				Element element = indexed.get(p).getElement();
+				element.getParentNode().removeChild(element);
+			}
+			doc.normalize();
+			Transformer transformer = IdentityTransformers.get();
+			transformer.setOutputProperty(OutputKeys.ENCODING, StandardCharsets.UTF_8.name());
+			transformer.transform(new DOMSource(doc), new StreamResult(os));
+		}
+	}
+
+	private static byte[] createPayload(int persons) {
+		StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<HRMD_A09>\n<IDOC BEGIN=\"1\">\n")
+				.append("<EDI_DC40 SEGMENT=\"1\"><TABNAM>EDI_DC40</TABNAM><MESTYP>HRMD_A</MESTYP></EDI_DC40>\n");
+		for (int p = 0; p < persons; p++) {
+			String objId = String.format("%08d", p);
+			sb.append("<E1PLOGI SEGMENT=\"1\"><PLVAR>01</PLVAR><OTYPE>P</OTYPE><OBJID>").append(objId).append("</OBJID>\n")
+					.append("<E1PITYP SEGMENT=\"1\"><OBJID>").append(objId).append("</OBJID><INFTY>0001</INFTY>\n")
+					.append("<E1P0001 SEGMENT=\"1\"><PERNR>").append(objId).append("</PERNR><ENDDA>99991231</ENDDA>")
+					.append("<BUKRS>1000</BUKRS><KOSTL>0000100100</KOSTL><ENAME>Ivanov I.</ENAME></E1P0001>\n</E1PITYP>\n")
+					.append("<E1PITYP SEGMENT=\"1\"><OBJID>").append(objId).append("</OBJID><INFTY>0002</INFTY>\n")
+					.append("<E1P0002 SEGMENT=\"1\"><PERNR>").append(objId).append("</PERNR><ENDDA>99991231</ENDDA>")
+					.append("<NACHN>Ivanov</NACHN><VORNA>Ivan</VORNA><MIDNM>Ivanovich</MIDNM></E1P0002>\n</E1PITYP>\n")
+					.append("</E1PLOGI>\n");
+		}
+		return sb.append("</IDOC>\n</HRMD_A09>\n").toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,240 @@
+package ru.sap.po.mapping.hrmd.filter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+import ru.sap.po.mapping.hrmd.filter.HrmdDocumentIndex.Person;
+import ru.sap.po.mapping.hrmd.filter.local.LocalDynamicConfiguration;
+
+/**
+ * Benchmarks of {@link HRMD_to_HRMD_filter} processing end to end and of each processing stage separately:
+ * parse, index, infotypes filtration, persons filtration, persons full name correction and serialization.
+ * End to end processing is measured with {@link HRMD_to_HRMD_filter#filter} in the processing mode
+ * of "filter.properties" (<tt>dom</tt>) and with {@link HrmdStreamingFilter} directly, sequentially and in parallel
+ * by persons (<tt>parallelBatchSize</tt>, <tt>parallelThreshold</tt> parameters) and by IDocs
+ * (<tt>parallelIdocWindow</tt>, use with <tt>idocs</tt> parameter). Filtration for all receivers
+ * of {@link #SYSTEM_IDS} is measured as one run per receiver and as one fan-out run.
+ *
+ * Each stage is measured on a freshly parsed message, which went through all the previous stages.
+ * The message is prepared before each invocation and is not measured, so stages of small messages
+ * are measured with the timer overhead of JMH's <code>Level.Invocation</code>.
+ * Persons filtration is measured with {@link HRMD_to_HRMD_filter#filterPersons}, which is the body of
+ * <code>processPersonsFiltration</code> without reading the receiver from <code>InputHeader</code>.
+ * Full name correction is applied to every person of the message.
+ *
+ * Payloads are created by {@link HrmdPayloadGenerator} with it's default infotype mix: employee infotypes
+ * 0000-0003 are passed through the mapping, 0008 and 0105 are removed, and persons are spread evenly over
+ * four company codes of {@link #SYSTEM_IDS}.
+ *
+ * Throughput and average time are reported for messages from 10 to 500000 persons. The largest message is
+ * about 1.8 GB and needs most of the 24 GB heap of the forked JVM in DOM mode, so run it on a machine with
+ * enough memory or set smaller sizes with <tt>-p persons</tt>.
+ *
+ * Run with <code>java -jar bench/target/benchmarks.jar HrmdFilterBenchmark -prof gc</code>, sizes and generator
+ * settings are set with parameters, e.g. <tt>-p persons=10,1000 -p slices=3 -bm thrpt</tt>, and <tt>-tu s</tt>
+ * reports large messages in seconds.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx24g")
+public class HrmdFilterBenchmark {
+
+	private static final String RECEIVER = "SYS_A";
+
+	/**
+	 * <code>BUKRS</code> &rarr; <code>SystemID</code> pairs of Dynamic Configuration, 4000 has no receiver.
+	 */
+	private static final Map<String, String> SYSTEM_IDS = new HashMap<>();
+	static {
+		SYSTEM_IDS.put("1000", "SYS_A");
+		SYSTEM_IDS.put("2000", "SYS_B");
+		SYSTEM_IDS.put("3000", "SYS_A");
+	}
+
+	private static final LocalDynamicConfiguration DYNAMIC_CONFIGURATION = new LocalDynamicConfiguration();
+	static {
+		SYSTEM_IDS.forEach((companyCode, systemId) ->
+				DYNAMIC_CONFIGURATION.put("urn:ru:SAP:CustomNamespace:10", "R" + companyCode, systemId));
+	}
+
+	@Param({"10", "1000", "100000", "500000"})
+	public int persons;
+
+	@Param("1")
+	public int idocs;
+
+	@Param("1")
+	public int slices;
+
+	/**
+	 * Parallel processing settings of streaming mode, see "filter.properties".
+	 */
+	@Param("256")
+	public int parallelBatchSize;
+
+	@Param("16")
+	public int parallelThreshold;
+
+	@Param("8")
+	public int parallelIdocWindow;
+
+	private HRMD_to_HRMD_filter mapping;
+	private byte[] payload;
+	private ByteArrayOutputStream os;
+	private Map<String, ByteArrayOutputStream> targets;
+
+	@Setup
+	public void setUp() throws Exception {
+		mapping = new HRMD_to_HRMD_filter(MappingTrace.NONE);
+		payload = new HrmdPayloadGenerator().persons(persons).idocs(idocs).slices(slices).toByteArray();
+		os = new ByteArrayOutputStream(payload.length);
+
+		// All receivers of Dynamic Configuration, one run per receiver versus one fan-out run
+		targets = new TreeMap<>();
+		for (String receiver : new TreeSet<>(SYSTEM_IDS.values())) {
+			targets.put(receiver, new ByteArrayOutputStream(payload.length));
+		}
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream transformDom() throws Exception {
+		os.reset();
+		mapping.filter(new ByteArrayInputStream(payload), os, RECEIVER, DYNAMIC_CONFIGURATION);
+		return os;
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream transformStax() throws Exception {
+		os.reset();
+		new HrmdStreamingFilter(mapping).filter(new ByteArrayInputStream(payload), os,
+				new SystemIdResolver(SYSTEM_IDS::get), RECEIVER);
+		return os;
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream transformStaxParallel() throws Exception {
+		os.reset();
+		new HrmdStreamingFilter(mapping, parallelBatchSize, parallelThreshold, 0, 0).filter(
+				new ByteArrayInputStream(payload), os, new SystemIdResolver(SYSTEM_IDS::get), RECEIVER);
+		return os;
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream transformStaxParallelIdocs() throws Exception {
+		os.reset();
+		new HrmdStreamingFilter(mapping, 0, 0, parallelIdocWindow, 0).filter(
+				new ByteArrayInputStream(payload), os, new SystemIdResolver(SYSTEM_IDS::get), RECEIVER);
+		return os;
+	}
+
+	@Benchmark
+	public Map<String, ByteArrayOutputStream> transformPerReceiverDom() throws Exception {
+		for (Map.Entry<String, ByteArrayOutputStream> target : targets.entrySet()) {
+			target.getValue().reset();
+			mapping.filter(new ByteArrayInputStream(payload), target.getValue(), target.getKey(), DYNAMIC_CONFIGURATION);
+		}
+		return targets;
+	}
+
+	@Benchmark
+	public Map<String, ByteArrayOutputStream> fanOutDom() throws Exception {
+		targets.values().forEach(ByteArrayOutputStream::reset);
+		mapping.filter(new ByteArrayInputStream(payload), targets, DYNAMIC_CONFIGURATION);
+		return targets;
+	}
+
+	@Benchmark
+	public Document stageParse() throws Exception {
+		return mapping.parseDocument(new ByteArrayInputStream(payload));
+	}
+
+	@Benchmark
+	public HrmdDocumentIndex stageIndex(Parsed message) {
+		return HrmdDocumentIndex.build(message.index.getDocument());
+	}
+
+	@Benchmark
+	public HrmdDocumentIndex stageInfotypesFiltration(Parsed message) {
+		mapping.processInfotypesFiltration(message.index, mapping.getInfotypesToPass(RECEIVER));
+		return message.index;
+	}
+
+	@Benchmark
+	public HrmdDocumentIndex stagePersonsFiltration(InfotypesFiltered message) {
+		mapping.filterPersons(message.index, new SystemIdResolver(SYSTEM_IDS::get), RECEIVER);
+		return message.index;
+	}
+
+	@Benchmark
+	public HrmdDocumentIndex stagePersonFullNameCorrection(InfotypesFiltered message) {
+		for (Person person : message.index.getPersons()) {
+			mapping.processPersonFullNameCorrection(message.index, person);
+		}
+		return message.index;
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream stageSerialize(PersonsFiltered message) throws Exception {
+		os.reset();
+		mapping.writeDocument(message.index, os);
+		return os;
+	}
+
+	/**
+	 * Freshly parsed message for a stage, which went through the given number of previous filtration stages:
+	 * 0 - none, 1 - infotypes filtration, 2 - infotypes and persons filtration.
+	 */
+	@State(Scope.Thread)
+	public static class Parsed {
+		HrmdDocumentIndex index;
+
+		@Setup(Level.Invocation)
+		public void setUp(HrmdFilterBenchmark benchmark) throws Exception {
+			HRMD_to_HRMD_filter mapping = benchmark.mapping;
+			index = HrmdDocumentIndex.build(mapping.parseDocument(new ByteArrayInputStream(benchmark.payload)));
+			if (previousStages() > 0) mapping.processInfotypesFiltration(index, mapping.getInfotypesToPass(RECEIVER));
+			if (previousStages() > 1) mapping.filterPersons(index, new SystemIdResolver(SYSTEM_IDS::get), RECEIVER);
+		}
+
+		int previousStages() {
+			return 0;
+		}
+	}
+
+	public static class InfotypesFiltered extends Parsed {
+		@Override
+		int previousStages() {
+			return 1;
+		}
+	}
+
+	public static class PersonsFiltered extends Parsed {
+		@Override
+		int previousStages() {
+			return 2;
+		}
+	}
+
+}
@@ -0,0 +1,35 @@
+package ru.sap.po.mapping.hrmd.filter;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+
+/**
+ * Thread-confined cache of identity {@link Transformer}s for benchmarks, which compare {@link XmlSerializer}
+ * with the identity transformation the mapping used before. The mapping itself doesn't use transformers,
+ * so they are not cached in {@link XmlFactories}.
+ */
+final class IdentityTransformers {
+
+	private static final ThreadLocal<Transformer> TRANSFORMER = new ThreadLocal<>();
+
+	private IdentityTransformers() {
+	}
+
+	/**
+	 * Method returns identity {@link Transformer} of the current thread, reset to it's initial state.
+	 *
+	 * @return Transformer
+	 */
+	static Transformer get() throws TransformerConfigurationException {
+		Transformer transformer = TRANSFORMER.get();
+		if (transformer == null) {
+			transformer = TransformerFactory.newInstance().newTransformer();
+			TRANSFORMER.set(transformer);
+		} else {
+			transformer.reset();
+		}
+		return transformer;
+	}
+
+}
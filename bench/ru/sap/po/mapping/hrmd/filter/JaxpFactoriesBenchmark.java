@@ -0,0 +1,71 @@
+package ru.sap.po.mapping.hrmd.filter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+/**
+ * Compares per-message cost of parsing and serializing a small delta IDoc with JAXP objects
+ * created from scratch on every message (as the mapping did before) and with {@link XmlFactories}
+ * and {@link IdentityTransformers}.
+ *
+ * Run with <code>java -jar bench/target/benchmarks.jar JaxpFactoriesBenchmark -prof gc</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JaxpFactoriesBenchmark {
+
+	private static final String DELTA_IDOC = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><HRMD_A09><IDOC BEGIN=\"1\">"
+			+ "<EDI_DC40 SEGMENT=\"1\"><TABNAM>EDI_DC40</TABNAM><MESTYP>HRMD_A</MESTYP></EDI_DC40>"
+			+ "<E1PLOGI SEGMENT=\"1\"><PLVAR>01</PLVAR><OTYPE>P</OTYPE><OBJID>00001001</OBJID>"
+			+ "<E1PITYP SEGMENT=\"1\"><OBJID>00001001</OBJID><INFTY>0001</INFTY>"
+			+ "<E1P0001 SEGMENT=\"1\"><PERNR>00001001</PERNR><ENDDA>99991231</ENDDA><BUKRS>1000</BUKRS>"
+			+ "<ENAME>Ivanov I.</ENAME></E1P0001></E1PITYP>"
+			+ "<E1PITYP SEGMENT=\"1\"><OBJID>00001001</OBJID><INFTY>0002</INFTY>"
+			+ "<E1P0002 SEGMENT=\"1\"><PERNR>00001001</PERNR><ENDDA>99991231</ENDDA><NACHN>Ivanov</NACHN>"
+			+ "<VORNA>Ivan</VORNA></E1P0002></E1PITYP></E1PLOGI></IDOC></HRMD_A09>";
+
+	private final byte[] payload = DELTA_IDOC.getBytes(StandardCharsets.UTF_8);
+	private final ByteArrayOutputStream os = new ByteArrayOutputStream(payload.length * 2);
+
+	@Benchmark
+	public ByteArrayOutputStream newFactoriesPerMessage() throws Exception {
+		os.reset();
+		Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(payload));
+		Transformer transformer = TransformerFactory.newInstance().newTransformer();
+		transformer.transform(new DOMSource(doc), new StreamResult(os));
+		return os;
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream threadLocalFactories() throws Exception {
+		os.reset();
+		Document doc = XmlFactories.documentBuilder().parse(new ByteArrayInputStream(payload));
+		Transformer transformer = IdentityTransformers.get();
+		transformer.transform(new DOMSource(doc), new StreamResult(os));
+		return os;
+	}
+
+}
@@ -0,0 +1,135 @@
+package ru.sap.po.mapping.hrmd.filter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.sap.po.mapping.hrmd.filter.local.BatchReplay;
+import ru.sap.po.mapping.hrmd.filter.local.LocalDynamicConfiguration;
+
+/**
+ * Benchmark of {@link BatchReplay} on a lot of small delta IDocs with a pool of platform threads
+ * and with a virtual thread per file (<tt>threads</tt> parameter), both limited to the same number
+ * of concurrently processed files. One operation is the replay of all files, so allocations
+ * of <tt>-prof gc</tt> are the ones of all replaying threads.
+ *
+ * Files are generated by {@link HrmdPayloadGenerator} to a temporary directory and removed at the end.
+ * Virtual threads need Java 21 or newer, on older JVMs their runs fail.
+ *
+ * Run with <code>java -jar bench/target/benchmarks.jar ReplayExecutorBenchmark -prof gc</code>, by default
+ * on 50000 files of 1 person and concurrency of 64, e.g. <tt>-p files=5000 -p persons=5 -p threads=platform</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class ReplayExecutorBenchmark {
+
+	private static final String RECEIVER = "SYS_A";
+
+	@Param("50000")
+	public int files;
+
+	@Param("1")
+	public int persons;
+
+	@Param("64")
+	public int concurrency;
+
+	@Param({"platform", "virtual"})
+	public String threads;
+
+	private Path directory;
+	private List<Path> payloads;
+	private BatchReplay replay;
+	private ExecutorService executor;
+
+	@Setup
+	public void setUp() throws IOException {
+		if ("virtual".equals(threads)) {
+			executor = BatchReplay.newVirtualThreadExecutor();
+			if (executor == null) throw new IllegalStateException("Virtual threads are not supported by this JVM");
+		} else {
+			executor = Executors.newFixedThreadPool(concurrency);
+		}
+
+		String namespace = new HRMD_to_HRMD_filter(MappingTrace.NONE).getDcKeyNamespace();
+		LocalDynamicConfiguration dynamicConfiguration = new LocalDynamicConfiguration()
+				.put(namespace, "R1000", "SYS_A")
+				.put(namespace, "R2000", "SYS_B")
+				.put(namespace, "R3000", "SYS_A");
+
+		directory = Files.createTempDirectory("hrmd-replay-");
+		Path inputDir = Files.createDirectory(directory.resolve("in"));
+		Path outputDir = Files.createDirectory(directory.resolve("out"));
+		payloads = generate(new HrmdPayloadGenerator().persons(persons), inputDir, files);
+		replay = new BatchReplay(dynamicConfiguration, RECEIVER, outputDir);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		if (executor != null) executor.shutdown();
+		if (directory != null) delete(directory);
+	}
+
+	@Benchmark
+	public int replayAll() throws Exception {
+		int processed = 0;
+		for (Future<BatchReplay.Result> result : replay.replay(payloads, executor, concurrency)) {
+			result.get();
+			processed++;
+		}
+		return processed;
+	}
+
+	/**
+	 * Method generates the given number of files with different seeds, so persons differ from file to file.
+	 */
+	private static List<Path> generate(HrmdPayloadGenerator generator, Path directory, int files) throws IOException {
+		List<Path> payloads = new ArrayList<>(files);
+		for (int i = 0; i < files; i++) {
+			Path file = directory.resolve(String.format("HRMD_A09_%06d.xml", i));
+			try (OutputStream os = Files.newOutputStream(file)) {
+				generator.seed(i).generate(os);
+			}
+			payloads.add(file);
+		}
+		return payloads;
+	}
+
+	private static void delete(Path directory) throws IOException {
+		for (String child : new String[] {"in", "out"}) {
+			Path subdirectory = directory.resolve(child);
+			if (!Files.isDirectory(subdirectory)) continue;
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(subdirectory)) {
+				for (Path file : stream) Files.delete(file);
+			}
+			Files.delete(subdirectory);
+		}
+		Files.delete(directory);
+	}
+
+}
@@ -0,0 +1,99 @@
+package ru.sap.po.mapping.hrmd.filter;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+/**
+ * Per-message trace of filtration decisions (removed infotypes, kept and dropped persons etc.)
+ * with configurable level of details:
+ * <ul>
+ *     <li><tt>summary</tt> - only numbers of decisions per <code>INFTY</code> / <code>BUKRS</code> are traced;</li>
+ *     <li><tt>sampled</tt> - numbers of decisions and every N-th decision are traced;</li>
+ *     <li><tt>full</tt> - every decision is traced.</li>
+ * </ul>
+ * Text of a decision is built only if it is written to the trace, so large messages in summary mode
+ * don't pay for string concatenation of hundreds of thousands of trace entries.
+ *
+ * Persons may be processed in parallel, so decisions are counted and traced under the lock of the instance.
+ */
+final class DecisionTrace {
+
+	enum Level {
+		SUMMARY, SAMPLED, FULL;
+
+		/**
+		 * @return level by it's name in "filter.properties" file or <code>null</code>, if there's no such level
+		 */
+		static Level of(String name) {
+			for (Level level : values()) {
+				if (level.name().equalsIgnoreCase(name)) return level;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Kinds of decisions, counted separately.
+	 */
+	enum Decision {
+		INFOTYPE_REMOVED("Removed infotypes by INFTY"),
+		PERSON_KEPT("Kept persons by BUKRS"),
+		PERSON_DROPPED("Dropped persons by BUKRS"),
+		KOSTL_REMOVED("Removed KOSTL by BUKRS"),
+		FUTURE_SEGMENT_USED("Used future segments by INFTY");
+
+		private final String label;
+
+		Decision(String label) {
+			this.label = label;
+		}
+	}
+
+	private final Supplier<MappingTrace> trace;
+	private final Level level;
+	private final int sampleRate;
+
+	private final Map<Decision, Map<String, Integer>> counts = new EnumMap<>(Decision.class);
+	private long decisions;
+
+	/**
+	 * @param trace       mapping trace
+	 * @param level       level of details
+	 * @param sampleRate  every N-th decision is traced in {@link Level#SAMPLED} mode
+	 */
+	DecisionTrace(Supplier<MappingTrace> trace, Level level, int sampleRate) {
+		this.trace = trace;
+		this.level = level;
+		this.sampleRate = Math.max(1, sampleRate);
+		for (Decision decision : Decision.values()) counts.put(decision, new TreeMap<>());
+	}
+
+	/**
+	 * Method counts the decision and writes it's text to the trace, if the level allows it.
+	 *
+	 * @param decision  kind of decision
+	 * @param key       <code>INFTY</code> or <code>BUKRS</code> the decision is counted by
+	 * @param message   supplier of decision text
+	 */
+	synchronized void add(Decision decision, String key, Supplier<String> message) {
+		counts.get(decision).merge(key, 1, Integer::sum);
+		decisions++;
+
+		if (level == Level.FULL || (level == Level.SAMPLED && (decisions - 1) % sampleRate == 0)) {
+			trace.get().addInfo(message.get());
+		}
+	}
+
+	/**
+	 * Method writes numbers of decisions of each kind to the trace, one line per kind.
+	 */
+	synchronized void addSummary() {
+		for (Decision decision : Decision.values()) {
+			Map<String, Integer> decisionCounts = counts.get(decision);
+			if (!decisionCounts.isEmpty()) trace.get().addInfo(decision.label + ": " + decisionCounts);
+		}
+	}
+
+}
@@ -0,0 +1,93 @@
+package ru.sap.po.mapping.hrmd.filter;
+
+import java.util.Locale;
+
+/**
+ * Per-message statistics of {@link HRMD_to_HRMD_filter}: nanosecond timers of processing stages
+ * and numbers of kept and dropped persons. Is written to the mapping trace as one line,
+ * so the dominating stage of a slow message can be seen in PI message monitor.
+ *
+ * An instance is used by one thread at a time, so there's no lock on the hot path. Parallel tasks collect
+ * their stage times and persons in their own instances, which are merged into the statistics of the message
+ * once, when the task is joined. Stage times are summed over all threads then, so in parallel mode
+ * they may exceed the total time.
+ */
+final class FilterStatistics {
+
+	/**
+	 * Processing stages. Persons filtration includes full name correction of kept persons,
+	 * so it's time is reported without names correction time.
+	 */
+	enum Stage {
+		PROPERTIES("properties"),
+		PARSE("parse"),
+		INFOTYPES("infotypes"),
+		PERSONS("persons"),
+		NAMES("names"),
+		SERIALIZE("serialize");
+
+		private final String label;
+
+		Stage(String label) {
+			this.label = label;
+		}
+	}
+
+	private final long startNanos = System.nanoTime();
+	private final long[] nanos = new long[Stage.values().length];
+	private int persons;
+	private int droppedPersons;
+
+	/**
+	 * Method adds time from the given start till now to the stage.
+	 *
+	 * @param stage       processing stage
+	 * @param startNanos  value of {@link System#nanoTime()} at the beginning of the stage
+	 */
+	void add(Stage stage, long startNanos) {
+		nanos[stage.ordinal()] += System.nanoTime() - startNanos;
+	}
+
+	/**
+	 * Method counts persons of the indexed document after persons filtration.
+	 */
+	void countPersons(HrmdDocumentIndex index) {
+		persons += index.getPersons().size();
+		droppedPersons += index.getDroppedPersonsCount();
+	}
+
+	/**
+	 * Method adds stage times and persons of a joined parallel task.
+	 *
+	 * @param task  statistics of the task, which is not used anymore
+	 */
+	void merge(FilterStatistics task) {
+		for (int i = 0; i < nanos.length; i++) nanos[i] += task.nanos[i];
+		persons += task.persons;
+		droppedPersons += task.droppedPersons;
+	}
+
+	/**
+	 * @param inputBytes   size of source message
+	 * @param outputBytes  size of target message
+	 *
+	 * @return one line summary of the message processing
+	 */
+	String getSummary(long inputBytes, long outputBytes) {
+		StringBuilder sb = new StringBuilder("Processing statistics (ms): ");
+		for (Stage stage : Stage.values()) {
+			long stageNanos = nanos[stage.ordinal()];
+			if (stage == Stage.PERSONS) stageNanos -= nanos[Stage.NAMES.ordinal()];
+			sb.append(stage.label).append('=').append(millis(stageNanos)).append(' ');
+		}
+		sb.append("total=").append(millis(System.nanoTime() - startNanos))
+				.append("; bytes in=").append(inputBytes).append(" out=").append(outputBytes)
+				.append("; persons kept=").append(persons - droppedPersons).append(" dropped=").append(droppedPersons);
+		return sb.toString();
+	}
+
+	private static String millis(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+	}
+
+}
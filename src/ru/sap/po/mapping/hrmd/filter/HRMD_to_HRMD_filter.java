@@ -1,43 +1,63 @@
 package ru.sap.po.mapping.hrmd.filter;
 
 import org.xml.sax.SAXException;
+import ru.sap.po.mapping.hrmd.filter.DecisionTrace.Decision;
+import ru.sap.po.mapping.hrmd.filter.FilterStatistics.Stage;
+import ru.sap.po.mapping.hrmd.filter.HrmdDocumentIndex.Infotype;
+import ru.sap.po.mapping.hrmd.filter.HrmdDocumentIndex.Person;
+import ru.sap.po.mapping.hrmd.filter.config.FilterConfig;
 import ru.sap.po.mapping.hrmd.filter.config.FilterPropertiesHandler;
+import ru.sap.po.mapping.hrmd.filter.config.InfotypeSet;
+import ru.sap.po.mapping.hrmd.filter.config.SegmentFieldMask;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringWriter;
+import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
 import java.util.List;
 import java.io.OutputStream;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Optional;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 import com.sap.aii.mapping.api.*;
 
 import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+import javax.xml.stream.XMLStreamException;
 
 public class HRMD_to_HRMD_filter extends AbstractTransformation {
 
 	/**
-	 * Constant represents the Last Day on Earth according to SAP.
-	 * Is used to determine the most actual time-dependent infosegments.
+	 * Length of SAP date in <tt>yyyymmdd</tt> format.
 	 */
-	private final String lastSapDayOnEarth = "99991231";
+	private static final int SAP_DATE_LENGTH = 8;
+
+	/**
+	 * Size of the head of incoming message in bytes, which is read to decide whether the message is a huge one.
+	 */
+	private static final int MESSAGE_PROBE_SIZE = 64 * 1024;
 
 	/**
 	 * Constant represents the custom namespace of Dynamic Configuration key.
@@ -59,227 +79,701 @@ public class HRMD_to_HRMD_filter extends AbstractTransformation {
 	 */
 	private List<String> EMPLOYEE_INFOTYPES;
 
+	/**
+	 * Key date as <tt>yyyymmdd</tt> number, time-dependent segment is valid (actual), if
+	 * <code>BEGDA</code> &le; key date &le; <code>ENDDA</code>. Is today by default.
+	 *
+	 * Can be modified in "filter.properties" file.
+	 */
+	private int KEY_DATE = today();
+
+	/**
+	 * Name of the streaming processing mode, see {@link HrmdStreamingFilter}.
+	 */
+	private final String streamingMode = "stax";
+
+	/**
+	 * Processing mode of the mapping: <tt>dom</tt> - the whole message is parsed to DOM {@link Document},
+	 * <tt>stax</tt> - the message is streamed from input to output and only one person (<code>E1PLOGI</code>
+	 * element) at a time is kept in memory.
+	 *
+	 * Can be modified in "filter.properties" file.
+	 */
+	private String PROCESSING_MODE;
+
+	/**
+	 * Level of details of filtration decisions in the mapping trace, see {@link DecisionTrace}.
+	 *
+	 * Can be modified in "filter.properties" file.
+	 */
+	private DecisionTrace.Level TRACE_LEVEL;
+
+	/**
+	 * Every N-th filtration decision is written to the mapping trace in <tt>sampled</tt> trace level.
+	 *
+	 * Can be modified in "filter.properties" file.
+	 */
+	private int TRACE_SAMPLE_RATE;
+
+	/**
+	 * Number of persons, which are collected in <tt>stax</tt> mode and processed together in parallel,
+	 * see {@link HrmdStreamingFilter}. Persons are processed one by one, if it is 0 or 1.
+	 *
+	 * Can be modified in "filter.properties" file.
+	 */
+	private int PARALLEL_BATCH_SIZE;
+
+	/**
+	 * Maximal number of persons in one parallel task, larger batches are split in halves.
+	 *
+	 * Can be modified in "filter.properties" file.
+	 */
+	private int PARALLEL_THRESHOLD;
+
+	/**
+	 * Maximal number of <code>IDOC</code> elements of a multi-IDoc packet, which are processed at the same time
+	 * in <tt>stax</tt> mode, see {@link HrmdStreamingFilter}. IDocs are not processed in parallel, if it is 0 or 1.
+	 *
+	 * Can be modified in "filter.properties" file.
+	 */
+	private int PARALLEL_IDOC_WINDOW;
+
+	/**
+	 * Number of worker threads of the dedicated pool of parallel tasks, see {@link WorkerPools}.
+	 * Number of available processors is used, if it is 0.
+	 *
+	 * Can be modified in "filter.properties" file.
+	 */
+	private int PARALLEL_POOL_SIZE;
+
+	/**
+	 * Size of incoming message in megabytes, from which the message is processed in memory-bounded mode
+	 * whatever {@link #PROCESSING_MODE} is set, see {@link #readMessageHead(InputStream)}.
+	 * Memory-bounded mode is disabled, if it is 0.
+	 *
+	 * Can be modified in "filter.properties" file.
+	 */
+	private int MEMORY_BOUNDED_THRESHOLD_MB;
+
+	/**
+	 * Flag to spill target message to a temporary file in memory-bounded mode.
+	 *
+	 * Can be modified in "filter.properties" file.
+	 */
+	private boolean MEMORY_BOUNDED_SPILL;
+
+	/**
+	 * Configuration snapshot of the current message, see {@link FilterPropertiesHandler#getConfig()}.
+	 */
+	private FilterConfig config;
+
+	/**
+	 * Trace to use instead of PI mapping trace or <code>null</code> in PI runtime.
+	 */
+	private final MappingTrace trace;
+
+	/**
+	 * Source of configuration snapshot of each message, {@link FilterPropertiesHandler} outside of tests.
+	 */
+	private final Supplier<FilterConfig> configuration;
+
+	/**
+	 * Statistics of the current message.
+	 */
+	private FilterStatistics statistics = new FilterStatistics();
+
+	/**
+	 * Trace of filtration decisions of the current message, traces everything until properties are loaded.
+	 */
+	private DecisionTrace decisions = new DecisionTrace(this::trace, DecisionTrace.Level.FULL, 1);
+
+	public HRMD_to_HRMD_filter() {
+		this(null);
+	}
+
+	/**
+	 * Constructor for running the mapping outside of PI runtime, where there's no mapping trace,
+	 * see {@link #filter(InputStream, OutputStream, String, BiFunction)}.
+	 *
+	 * @param trace  trace of the mapping
+	 */
+	public HRMD_to_HRMD_filter(MappingTrace trace) {
+		this(trace, () -> FilterPropertiesHandler.getInstance().getConfig());
+	}
+
+	/**
+	 * Constructor for running the mapping with the given configuration instead of "filter.properties", e.g. in tests.
+	 *
+	 * @param trace          trace of the mapping
+	 * @param configuration  source of configuration snapshot of each message
+	 */
+	HRMD_to_HRMD_filter(MappingTrace trace, Supplier<FilterConfig> configuration) {
+		this.trace = trace;
+		this.configuration = configuration;
+	}
+
 	@Override
 	public void transform (TransformationInput ti, TransformationOutput to)
 			throws StreamTransformationException {
 
-		getTrace().addInfo("HRMD_A filtration mapping program started!");
+		// BUKRS to SystemID pairs are resolved from Dynamic Configuration only once per message
+		SystemIdResolver systemIds = SystemIdResolver.forDynamicConfiguration(ti.getDynamicConfiguration(), dcKeyNamespace);
+
+		try (InputStream is = ti.getInputPayload().getInputStream();
+			 OutputStream os = to.getOutputPayload().getOutputStream()) {
+			filter(is, os, systemIds, ti.getInputHeader().getReceiverService());
+		} catch (IOException ioe) {
+			// Target message may be already partially written, so the message must fail instead of being delivered
+			trace().addWarning("Encountered IOException while processing TransformationInput or TransformationOutput ", ioe);
+			throw new StreamTransformationException("HRMD_A filtration failed: " + ioe.getMessage(), ioe);
+		}
+	}
+
+	/**
+	 * Method applies the mapping to HRMD_A IDoc message outside of PI runtime - e.g. in benchmarks and batch tools.
+	 * Filtration is the same as in {@link #transform(TransformationInput, TransformationOutput)}, but the message,
+	 * receiver and Dynamic Configuration are given by the caller.
+	 *
+	 * @param is                    source HRMD_A IDoc message, is not closed
+	 * @param os                    target message, is not closed
+	 * @param receiverService       <tt>ReceiverService</tt> of the message
+	 * @param dynamicConfiguration  function, which returns value of Dynamic Configuration key by it's namespace
+	 *                              and name or <code>null</code>, if there's no such key
+	 *
+	 * @throws IOException if the message can't be read or streamed, target message is incomplete then and must be discarded
+	 */
+	public void filter(InputStream is, OutputStream os, String receiverService,
+					   BiFunction<String, String, String> dynamicConfiguration) throws IOException {
+		filter(is, os, SystemIdResolver.forKeyLookup(dynamicConfiguration, dcKeyNamespace), receiverService);
+	}
+
+	/**
+	 * Method applies the mapping to HRMD_A IDoc message once for several receiver systems (fan-out):
+	 * the message is parsed, indexed and filtered by infotypes only once, <code>BUKRS</code> of each person
+	 * is resolved only once, and then a separate target message is written for each receiver system.
+	 * Each target message is the same, as {@link #filter(InputStream, OutputStream, String, BiFunction)}
+	 * would produce for that receiver. Fan-out needs the whole message in memory, so it is always
+	 * processed in DOM mode.
+	 *
+	 * @param is                    source HRMD_A IDoc message, is not closed
+	 * @param targets               target messages by <tt>ReceiverService</tt>, are not closed
+	 * @param dynamicConfiguration  function, which returns value of Dynamic Configuration key by it's namespace
+	 *                              and name or <code>null</code>, if there's no such key
+	 *
+	 * @throws IOException if the message can't be parsed or any target message can't be written,
+	 * target messages are incomplete then and must all be discarded
+	 */
+	public void filter(InputStream is, Map<String, ? extends OutputStream> targets,
+					   BiFunction<String, String, String> dynamicConfiguration) throws IOException {
+		SystemIdResolver systemIds = SystemIdResolver.forKeyLookup(dynamicConfiguration, dcKeyNamespace);
+		trace().addInfo("HRMD_A filtration mapping program started for receivers: " + targets.keySet() + "!");
+
+		statistics = new FilterStatistics();
+		CountingInputStream source = new CountingInputStream(is);
+		Map<String, CountingOutputStream> counted = new LinkedHashMap<>();
+		targets.forEach((receiver, os) -> counted.put(receiver, new CountingOutputStream(os)));
+
+		long start = System.nanoTime();
+		boolean loaded = loadProperties();
+		statistics.add(Stage.PROPERTIES, start);
+		if(!loaded) return;
+
+		decisions = new DecisionTrace(this::trace, TRACE_LEVEL, TRACE_SAMPLE_RATE);
+
+		if (streamingMode.equals(PROCESSING_MODE)) {
+			trace().addDebugMessage("Fan-out to several receivers is processed in DOM mode.");
+		}
+		processFanOutFiltration(source, counted, systemIds);
+
+		long written = 0;
+		for (CountingOutputStream target : counted.values()) written += target.getCount();
+
+		decisions.addSummary();
+		trace().addInfo(systemIds.getSummary());
+		trace().addInfo(statistics.getSummary(source.getCount(), written));
+
+		trace().addInfo("HRMD_A filtration mapping program finished!");
+	}
+
+	/**
+	 * @return namespace of Dynamic Configuration keys with 'BUKRS'-'ReceiverSystem' pairs
+	 */
+	public String getDcKeyNamespace() {
+		return dcKeyNamespace;
+	}
+
+	private void filter(InputStream is, OutputStream os, SystemIdResolver systemIds, String receiverService)
+			throws IOException {
+		trace().addInfo("HRMD_A filtration mapping program started!");
+
+		// Each stage of the message is timed, sizes of source and target messages are counted on the fly
+		statistics = new FilterStatistics();
+		CountingInputStream source = new CountingInputStream(is);
+		CountingOutputStream target = new CountingOutputStream(os);
 
 		// Try to load mapping properties from file - if it fails, we'll stop the whole transformation
-		if(!loadProperties()) return;
+		long start = System.nanoTime();
+		boolean loaded = loadProperties();
+		statistics.add(Stage.PROPERTIES, start);
+		if(!loaded) return;
+
+		decisions = new DecisionTrace(this::trace, TRACE_LEVEL, TRACE_SAMPLE_RATE);
+
+		// Size of the message is probed on reading, the message is processed starting with it's already read head
+		MessageHead head = readMessageHead(source);
+		long size = head == null || head.isComplete() ? -1 : head.size() + source.available();
+		boolean huge = size >= getMemoryBoundedThreshold();
+		InputStream payload = head == null ? source : head.toMessage(source);
+		// The head is referenced only by the payload, which drops it, once it's bytes are read
+		head = null;
+
+		if (huge) {
+			// Keep only a bounded part of huge message in heap, whatever processing mode is set
+			trace().addInfo("Source message has at least " + size + " bytes, it is processed in memory-bounded mode.");
+			processBoundedFiltration(payload, target, systemIds, receiverService);
+		} else if (streamingMode.equals(PROCESSING_MODE)) {
+			// Stream incoming message to target message without building DOM tree of the whole message
+			processStreamingFiltration(payload, target, systemIds, receiverService, PARALLEL_IDOC_WINDOW);
+		} else {
+			processDocumentFiltration(payload, target, systemIds, receiverService);
+		}
 
-		// Parse incoming message to DOM <code>Document</code>
-		Document source = getDocumentFromTransformationInput(ti);
+		decisions.addSummary();
+		trace().addInfo(systemIds.getSummary());
+		trace().addInfo(statistics.getSummary(source.getCount(), target.getCount()));
 
-		// If parsing failed - there's nothing to process, we'll stop the whole transformation
-		if (source == null) return;
+		trace().addInfo("HRMD_A filtration mapping program finished!");
+	}
+
+	/**
+	 * Method parses the whole incoming message to DOM {@link Document}, filters it and writes to target message.
+	 *
+	 * @throws IOException if the message can't be parsed or written, as in streaming mode
+	 */
+	private void processDocumentFiltration(InputStream is, OutputStream os, SystemIdResolver systemIds,
+										   String receiverService) throws IOException {
+		// Parse incoming message to DOM <code>Document</code> - if parsing fails, the whole transformation fails
+		long start = System.nanoTime();
+		Document source = getDocumentFromInputStream(is);
+
+		// Index persons and infotypes of incoming message in one pass for all further processing stages
+		HrmdDocumentIndex index = HrmdDocumentIndex.build(source);
+		statistics.add(Stage.PARSE, start);
 
 		// Remove unnecessary infotypes from incoming message
-		processInfotypesFiltration(source);
+		start = System.nanoTime();
+		processInfotypesFiltration(index, getInfotypesToPass(receiverService));
+		statistics.add(Stage.INFOTYPES, start);
 
 		// Remain only receiver-relevant persons in target message and clean persons full names
-		processPersonsFiltration(source, ti.getDynamicConfiguration(), ti.getInputHeader());
-
-		// Write result message to TransformationOutput
-		writeXMLToTransformationOutput(to, getXmlStringFromDocument(source));
+		start = System.nanoTime();
+		processPersonsFiltration(index, systemIds, receiverService);
+		statistics.add(Stage.PERSONS, start);
+		statistics.countPersons(index);
+
+		// Write result message to target message, skipping all dropped nodes
+		start = System.nanoTime();
+		writeDocumentToOutputStream(os, index);
+		statistics.add(Stage.SERIALIZE, start);
+	}
 
-		getTrace().addInfo("HRMD_A filtration mapping program finished!");
+	/**
+	 * Method parses the whole incoming message to DOM {@link Document} and filters it once,
+	 * then writes a target message for each receiver system, skipping persons routed to other receivers.
+	 *
+	 * @throws IOException if the message can't be parsed or any target message can't be written
+	 */
+	private void processFanOutFiltration(InputStream is, Map<String, ? extends OutputStream> targets,
+										 SystemIdResolver systemIds) throws IOException {
+		long start = System.nanoTime();
+		Document source = getDocumentFromInputStream(is);
+		HrmdDocumentIndex index = HrmdDocumentIndex.build(source);
+		statistics.add(Stage.PARSE, start);
+
+		// Infotypes, which no receiver needs, are dropped once for all receivers
+		start = System.nanoTime();
+		Map<String, InfotypeSet> profiles = new HashMap<>();
+		for (String receiver : targets.keySet()) profiles.put(receiver, getInfotypesToPass(receiver));
+		processInfotypesFiltration(index, InfotypeSet.union(profiles.values()));
+		statistics.add(Stage.INFOTYPES, start);
+
+		// Each person is routed to one receiver, to all of them or to none
+		start = System.nanoTime();
+		Map<Node, String> routes = routePersons(index, systemIds, profiles);
+		statistics.add(Stage.PERSONS, start);
+		statistics.countPersons(index);
+
+		// Persons going to all receivers are written with infotypes of each receiver's profile
+		Map<String, Set<Node>> removed = removeReceiverInfotypes(index, profiles, routes);
+
+		start = System.nanoTime();
+		for (Map.Entry<String, ? extends OutputStream> target : targets.entrySet()) {
+			String receiver = target.getKey();
+			Set<Node> removedInfotypes = removed.getOrDefault(receiver, Collections.emptySet());
+			try {
+				writeDocument(index, target.getValue(), node -> index.isDropped(node) || removedInfotypes.contains(node)
+						|| !receiver.equals(routes.getOrDefault(node, receiver)));
+				trace().addDebugMessage("Finished writing result message for receiver: '" + receiver + "'");
+			} catch (IOException ioe) {
+				// Fan-out is one message, so it fails as a whole, even if other target messages are written
+				throw new IOException("Encountered error during writing result message for receiver: '" + receiver + "'", ioe);
+			}
+		}
+		statistics.add(Stage.SERIALIZE, start);
 	}
 
 	/**
-	 * Method walks through source {@link Document} (HRMD_A IDoc) and checks each <code>E1PITYP</code>
-	 * {@link Node} infotype (<code>INFTY</code> tag). If the value of <code>INFTY</code> tag
+	 * Method walks through indexed infotypes of source {@link Document} (HRMD_A IDoc) and checks each
+	 * <code>E1PITYP</code> {@link Node} infotype (<code>INFTY</code> tag). If the value of <code>INFTY</code> tag
 	 * is contained in one of {@link #EMPLOYEE_INFOTYPES} or {@link #MANAGEMENT_INFOTYPES} array -
 	 * the whole <code>E1PITYP</code> {@link Node} wil be remained in the DOM tree.
 	 *
 	 * All <code>E1PITYP</code> nodes with unrecognized <code>INFTY</code> codes will be
-	 * REMOVED from the DOM tree (and therefore in target message).
+	 * DROPPED in the index (and therefore will not be written to target message).
 	 *
-	 * @param source  source HRMD_A IDoc message, serialized to {@link Document}
+	 * @param index        index of source HRMD_A IDoc message, serialized to {@link Document}
+	 * @param inftyToPass  set of all <tt>HRMD_A09</tt> infotypes which must be passed through this mapping
 	 */
-	private void processInfotypesFiltration(Document source) {
-		// List of all <tt>HRMD_A09</tt> infotypes which must be passed through this mapping.
-		List<String> inftyToPass = new ArrayList<>();
-		inftyToPass.addAll(EMPLOYEE_INFOTYPES);
-		inftyToPass.addAll(MANAGEMENT_INFOTYPES);
+	void processInfotypesFiltration(HrmdDocumentIndex index, InfotypeSet inftyToPass) {
+		trace().addDebugMessage(inftyToPass.toString());
 
-		getTrace().addDebugMessage(inftyToPass.toString());
+		trace().addDebugMessage("Source IDOC message has " + index.getInfotypes().size() + " info segments.");
 
-		// Get all <tt>E1PITYP</tt> segments from the whole DOM tree to NodeList
-		NodeList infoTypes = source.getElementsByTagName("E1PITYP");
-
-		getTrace().addDebugMessage("Source IDOC message has " + infoTypes.getLength() + " info segments.");
-
-		// Open stream from NodeList and put all of it's records in List that wouldn't be modified during filtration
-		List<Node> nodes = IntStream.range(0, infoTypes.getLength())
-				.mapToObj(infoTypes::item)
-				.collect(Collectors.toList());
-
-		// Iterate over list of collected <tt>E1PITYP</tt> nodes
-		nodes.forEach(node -> {
-			if (node.getNodeType() != Node.ELEMENT_NODE) return;
-			Element infotype = (Element) node;
-
-			// Try to get <tt>OBJID</tt> string for segment (only for logging purpose)
-			String objId = getTextContentFromElementTag(infotype, "OBJID");
+		filterInfotypes(index, inftyToPass);
+	}
 
+	/**
+	 * Method drops <code>E1PITYP</code> nodes with <code>INFTY</code> codes, which are not contained
+	 * in the given set, from target message. Is used for the whole {@link Document} in DOM mode
+	 * and for each collected segment in streaming mode.
+	 *
+	 * @param index        index of the document to filter
+	 * @param inftyToPass  set of infotypes which must be passed through this mapping
+	 */
+	void filterInfotypes(HrmdDocumentIndex index, InfotypeSet inftyToPass) {
+		// Iterate over all indexed <tt>E1PITYP</tt> nodes
+		for (Infotype infotype : index.getInfotypes()) {
 			// Try to get <tt>INFTY</tt> string for segment
-			String infoTypeCode = getTextContentFromElementTag(infotype, "INFTY");
+			String infoTypeCode = infotype.getCode();
 
 			// Go to next iteration, if there's no <tt>INFTY</tt> string
-			if (isNullOrEmpty(infoTypeCode)) return;
+			if (isNullOrEmpty(infoTypeCode)) continue;
 
 			// Perform check for needed infotypes
 			if (!inftyToPass.contains(infoTypeCode)) {
-				infotype.getParentNode().removeChild(infotype);
-				getTrace().addInfo("Found segment with INFTY: '" + infoTypeCode + "' and OBJID: '" +
-						objId + "', so the whole parent 'E1PITYP' element would be removed from target message.");
+				index.drop(infotype);
+				decisions.add(Decision.INFOTYPE_REMOVED, infoTypeCode, () -> "Found segment with INFTY: '" + infoTypeCode +
+						"' and OBJID: '" + infotype.getObjId() + "', so the whole parent 'E1PITYP' element would be removed from target message.");
+			}
+		}
+	}
+
+	/**
+	 * Method finds infotypes going to all receivers of fan-out - of persons going to all receivers and outside
+	 * of persons - which are passed to some receivers, but not to others. They are kept in the index and are skipped
+	 * only in target messages of receivers, whose profile doesn't contain them. Infotypes of persons going to one
+	 * receiver are already dropped by {@link #routePersons(HrmdDocumentIndex, SystemIdResolver, Map)}.
+	 *
+	 * @param index     index of the document, where infotypes not passed to any receiver are already dropped
+	 * @param profiles  set of passed infotypes by receiver system
+	 * @param routes    receiver system by <code>E1PLOGI</code> element of each person, which goes to one receiver only
+	 *
+	 * @return <code>E1PITYP</code> elements to skip by receiver system, only for receivers with any
+	 */
+	private Map<String, Set<Node>> removeReceiverInfotypes(HrmdDocumentIndex index, Map<String, InfotypeSet> profiles,
+														   Map<Node, String> routes) {
+		Map<String, Set<Node>> removed = new HashMap<>();
+
+		// Receivers without own profiles share the same set and need nothing more
+		if (new HashSet<>(profiles.values()).size() < 2) return removed;
+
+		for (Infotype infotype : index.getInfotypes()) {
+			Person person = infotype.getPerson();
+			if (infotype.isRemoved() || (person != null && routes.containsKey(person.getElement()))) continue;
+			String infoTypeCode = infotype.getCode();
+			if (isNullOrEmpty(infoTypeCode)) continue;
+
+			for (Map.Entry<String, InfotypeSet> profile : profiles.entrySet()) {
+				if (profile.getValue().contains(infoTypeCode)) continue;
+
+				String receiver = profile.getKey();
+				removed.computeIfAbsent(receiver, r -> Collections.newSetFromMap(new IdentityHashMap<>()))
+						.add(infotype.getElement());
+				decisions.add(Decision.INFOTYPE_REMOVED, infoTypeCode, () -> "Found segment with INFTY: '" + infoTypeCode +
+						"' and OBJID: '" + infotype.getObjId() + "', so the whole parent 'E1PITYP' element would be removed from " +
+						"target message that goes to system: '" + receiver + "'.");
 			}
-		});
+		}
+		return removed;
+	}
 
-		source.normalize();
+	/**
+	 * Method drops infotypes of one person, which are not contained in the given set.
+	 *
+	 * @param index        index of the document to filter
+	 * @param person       indexed person with it's infotypes
+	 * @param inftyToPass  set of infotypes which must be passed to the receiver of the person
+	 */
+	private void filterInfotypes(HrmdDocumentIndex index, Person person, InfotypeSet inftyToPass) {
+		for (Infotype infotype : person.getInfotypes()) {
+			String infoTypeCode = infotype.getCode();
+			if (infotype.isRemoved() || isNullOrEmpty(infoTypeCode) || inftyToPass.contains(infoTypeCode)) continue;
+
+			index.drop(infotype);
+			decisions.add(Decision.INFOTYPE_REMOVED, infoTypeCode, () -> "Found segment with INFTY: '" + infoTypeCode +
+					"' and OBJID: '" + infotype.getObjId() + "', so the whole parent 'E1PITYP' element would be removed from target message.");
+		}
+	}
+
+	/**
+	 * Method returns set of all <tt>HRMD_A09</tt> infotypes which must be passed to the receiver system -
+	 * both {@link #EMPLOYEE_INFOTYPES} and {@link #MANAGEMENT_INFOTYPES} or the infotype profile
+	 * of the receiver (<tt>receiver.&lt;SystemID&gt;.*.infotypes</tt> properties). Sets are compiled, when
+	 * configuration snapshot is loaded, and are shared by all messages of the snapshot.
+	 *
+	 * @param receiverService  <tt>ReceiverService</tt> of the message, may be <code>null</code>
+	 *
+	 * @return InfotypeSet
+	 */
+	InfotypeSet getInfotypesToPass(String receiverService) {
+		return config().getPassedInfotypes(receiverService);
+	}
+
+	/**
+	 * @return configuration snapshot of the current message or the current snapshot,
+	 * if stages of the mapping are called without {@link #loadProperties()}
+	 */
+	private FilterConfig config() {
+		return config != null ? config : configuration.get();
 	}
 
 	/**
 	 * Method firstly gets <tt>ReceiverService</tt> string from {@link InputHeader} object,
-	 * then walks through source {@link Document} (HRMD_A IDoc) with the following logic: <br>
-	 *     1) Iterate over list of all <code>E1PITYP</code> nodes of source {@link Document} <br>
-	 *     2) If <code>INFTY</code> element in {@link Node} has value '0001' - get all time
-	 *     dependent segments (<code>E1P0001</code>) <br>
-	 *     3) Check if time dependent segment is active for now - compare {@link #lastSapDayOnEarth}
-	 *     constant with the value of <code>ENDDA</code> element of time dependent segment and continue
-	 *     processing if  comparing values equals each other <br>
-	 *     4) Get value of <code>BUKRS</code> element of time dependent segment - it's employee current
+	 * then walks through indexed persons of source {@link Document} (HRMD_A IDoc) with the following logic: <br>
+	 *     1) Iterate over all <code>E1PITYP</code> nodes of each person, where <code>INFTY</code> element
+	 *     has value '0001', and get all time dependent segments (<code>E1P0001</code>) <br>
+	 *     2) Check if time dependent segment is valid on {@link #KEY_DATE} - <code>BEGDA</code> &le; key date
+	 *     &le; <code>ENDDA</code>, see {@link #isValidOnKeyDate(Element)} - and continue processing, if it is.
+	 *     If no segment of the infotype is valid on key date, it's nearest future segment is processed instead,
+	 *     see {@link #getFutureSegment(Infotype)} <br>
+	 *     3) Get value of <code>BUKRS</code> element of time dependent segment - it's employee current
 	 *     company code <br>
-	 *     5) Try to get appropriate <code>SystemID</code> for given <code>BUKRS</code>
-	 *     from {@link DynamicConfiguration} that was filled on receiver determination step <br>
-	 *     6) Check if found <code>SystemID</code> from {@link DynamicConfiguration} equals
+	 *     4) Try to get appropriate <code>SystemID</code> for given <code>BUKRS</code>
+	 *     from {@link DynamicConfiguration} that was filled on receiver determination step
+	 *     (each <code>BUKRS</code> is resolved once per message, see {@link SystemIdResolver}) <br>
+	 *     5) Check if found <code>SystemID</code> from {@link DynamicConfiguration} equals
 	 *     <code>ReceiverService</code> from {@link InputHeader}: <br>
-	 *         a) Equals - remain parent {@link Node} in target message and continue processing -
-	 *         pass parent {@link Node} (<code>E1PLOGI</code>) to {@link #processPersonFullNameCorrection(Node)} <br>
-	 *         b) Not equals - remove parent {@link Node} from target message <br>
+	 *         a) Equals - remain person {@link Node} in target message and continue processing -
+	 *         pass person (<code>E1PLOGI</code>) to {@link #processPersonFullNameCorrection(HrmdDocumentIndex, Person)} <br>
+	 *         b) Not equals - drop person {@link Node} from target message <br>
 	 *
-	 * @param source  source HRMD_A IDoc message, serialized to {@link Document}
-	 * @param dc      {@link DynamicConfiguration} object
-	 * @param ih      {@link InputHeader} object
+	 * @param index            index of source HRMD_A IDoc message, serialized to {@link Document}
+	 * @param systemIds        per-message resolver of <code>SystemID</code> from {@link DynamicConfiguration}
+	 * @param receiverService  <tt>ReceiverService</tt> from {@link InputHeader} object
 	 */
-	private void processPersonsFiltration(Document source, DynamicConfiguration dc, InputHeader ih) {
-		// Get current message receiver service
-		String currentSystemId = ih.getReceiverService();
+	void processPersonsFiltration(HrmdDocumentIndex index, SystemIdResolver systemIds, String receiverService) {
+		// Get current message receiver service - if it's null or empty, we can not go on
+		String currentSystemId = getCurrentSystemId(receiverService);
+		if (currentSystemId == null) return;
+
+		trace().addDebugMessage("Source IDOC message has " + index.getRemainingInfotypesCount() + " info segments.");
 
-		// If current receiver service is null or empty - we can not go on
+		filterPersons(index, systemIds, currentSystemId);
+	}
+
+	/**
+	 * Method checks <tt>ReceiverService</tt> string from {@link InputHeader} object.
+	 * Returns <code>null</code> with warning in trace, if there's no receiver service.
+	 *
+	 * @param currentSystemId  <tt>ReceiverService</tt> from {@link InputHeader} object
+	 *
+	 * @return String
+	 */
+	String getCurrentSystemId(String currentSystemId) {
 		if (isNullOrEmpty(currentSystemId)) {
-			getTrace().addWarning("Can not get ReceiverService for current message from InputHeader object." +
+			trace().addWarning("Can not get ReceiverService for current message from InputHeader object." +
 					" Can not perform person bu company code filtration.");
-			return;
+			return null;
 		}
 
-		// Get all <tt>E1PITYP</tt> segments from the whole DOM tree (it's been modified on previous steps)
-		NodeList infoTypes = source.getElementsByTagName("E1PITYP");
-
-		getTrace().addDebugMessage("Source IDOC message has " + infoTypes.getLength() + " info segments.");
-
-		// Open stream from NodeList and put all of it's records in List that wouldn't be modified during filtration
-		List<Node> nodes = IntStream.range(0, infoTypes.getLength())
-				.mapToObj(infoTypes::item)
-				.collect(Collectors.toList());
-
-		// Iterate through list of collected <tt>E1PITYP</tt> nodes
-		nodes.forEach(node -> {
-			if (node.getNodeType() != Node.ELEMENT_NODE) return;
-			Element infoType = (Element) node;
-
-			// Try to get <tt>OBJID</tt> string for segment (only for logging purpose)
-			String objId = getTextContentFromElementTag(infoType, "OBJID");
-
-			// Try to get <tt>INFTY</tt> string for segment
-			String infoTypeCode = getTextContentFromElementTag(infoType, "INFTY");
+		return currentSystemId;
+	}
 
-			// Go to next iteration, if there's no <tt>INFTY</tt> string
-			if (isNullOrEmpty(infoTypeCode)) return;
+	/**
+	 * Method keeps in target message only persons (<code>E1PLOGI</code> nodes), which are relevant for
+	 * the current receiver system, see {@link #processPersonsFiltration(HrmdDocumentIndex, SystemIdResolver, String)}.
+	 * Is used for the whole {@link Document} in DOM mode and for each collected person in streaming mode.
+	 *
+	 * @param index            index of the document to filter
+	 * @param systemIds        per-message resolver of <code>SystemID</code> from {@link DynamicConfiguration}
+	 * @param currentSystemId  <tt>ReceiverService</tt> of the current message
+	 */
+	void filterPersons(HrmdDocumentIndex index, SystemIdResolver systemIds, String currentSystemId) {
+		filterPersons(index, systemIds, currentSystemId, statistics);
+	}
 
-			// If '0001' infotype is found, get company code and then try to get SystemID from DynamicConfiguration
-			if ("0001".equals(infoTypeCode)) {
-				NodeList timeDependentSegmentsE1P = infoType.getElementsByTagName("E1P" + infoTypeCode);
+	/**
+	 * Method keeps in target message only persons, which are relevant for the current receiver system,
+	 * and times full name correction in the given statistics - the one of the message or of a parallel task.
+	 *
+	 * @param index            index of the document to filter
+	 * @param systemIds        per-message resolver of <code>SystemID</code> from {@link DynamicConfiguration}
+	 * @param currentSystemId  <tt>ReceiverService</tt> of the current message
+	 * @param statistics       statistics of the calling thread
+	 */
+	void filterPersons(HrmdDocumentIndex index, SystemIdResolver systemIds, String currentSystemId,
+					   FilterStatistics statistics) {
+		// Iterate through indexed persons - routing depends only on their own '0001' infotypes,
+		// including ones dropped by the infotype profile of the receiver
+		for (Person person : index.getPersons()) {
+			for (Infotype infoType : person.getInfotypes("0001")) {
+				// Try to get <tt>OBJID</tt> string for segment (only for logging purpose)
+				String objId = infoType.getObjId();
 
-				// Open stream from NodeList and put all of it's records in List that wouldn't be modified during filtration
-				List<Node> timeDependentSegmentsListE1P = IntStream.range(0, timeDependentSegmentsE1P.getLength())
-						.mapToObj(timeDependentSegmentsE1P::item)
-						.collect(Collectors.toList());
+				// Infotype without segments valid on key date is routed by it's nearest future segment
+				Element futureSegment = getFutureSegment(infoType);
 
-				// Iterate over list of collected <tt>E1P0001</tt> nodes
-				timeDependentSegmentsListE1P.forEach(E1P0001 -> {
-					if (E1P0001.getNodeType() != Node.ELEMENT_NODE) return;
-					Element timeDependentSegmentE1P = (Element) E1P0001;
+				// Iterate over time dependent <tt>E1P0001</tt> segments, until the person is removed
+				for (Element timeDependentSegmentE1P : infoType.getSegments()) {
+					if (person.isRemoved()) break;
 
-					// Try to get value of "ENDDA" element to check if this segment is valid for now
-					String endDate = getTextContentFromElementTag(timeDependentSegmentE1P, "ENDDA");
-					if(!lastSapDayOnEarth.equals(endDate)) return;
+					// Check if this segment is valid on key date
+					if (timeDependentSegmentE1P != futureSegment && !isValidOnKeyDate(timeDependentSegmentE1P)) continue;
 
 					// Try to get company code from active time dependent segment
 					String companyCode = getTextContentFromElementTag(timeDependentSegmentE1P, "BUKRS");
-					if (!isNullOrEmpty(companyCode)) {
-						// Get SystemId appropriate to BUKRS from Dynamic Configuration
-						DynamicConfigurationKey bukrsKey =
-								DynamicConfigurationKey.create(dcKeyNamespace, "R" + companyCode);
-						String systemId = dc.get(bukrsKey);
-
-						// Get parent node of infotype (it's 'E1PLOGI') for further processing
-						Node infoTypeParent = node.getParentNode();
-
-						// If there is a SystemId in Dynamic Configuration - this is relevant BUKRS
-						if (!isNullOrEmpty(systemId)) {
-							// If that SystemId is the same as ReceiverService - need to keep this person in target message
-							if (systemId.equals(currentSystemId)) {
-								// If this person is kept - it must be processed further
-								processPersonFullNameCorrection(infoTypeParent);
-								getTrace().addInfo("Found relevant person data with BUKRS: '" + companyCode + "' and OBJID: '" +
-										objId + "' - keep this person in target message that goes to system: '" + currentSystemId + "'.");
-								return;
-							}
+					if (isNullOrEmpty(companyCode)) continue;
+
+					// Get SystemId appropriate to BUKRS from Dynamic Configuration
+					String systemId = systemIds.resolve(companyCode);
+
+					// If there is a SystemId in Dynamic Configuration - this is relevant BUKRS
+					if (!isNullOrEmpty(systemId)) {
+						// If that SystemId is the same as ReceiverService - need to keep this person in target message
+						if (systemId.equals(currentSystemId)) {
+							// If this person is kept - it must be processed further
+							long start = System.nanoTime();
+							processPersonFullNameCorrection(index, person);
+							statistics.add(Stage.NAMES, start);
+							decisions.add(Decision.PERSON_KEPT, companyCode, () -> "Found relevant person data with BUKRS: '" +
+									companyCode + "' and OBJID: '" + objId + "' - keep this person in target message that goes to system: '" +
+									currentSystemId + "'.");
+							continue;
 						}
-
-						// If all checks above was false - remove this person from target message
-						infoTypeParent.getParentNode().removeChild(infoTypeParent);
-						getTrace().addInfo("Found person data with BUKRS: '" + companyCode + "' and OBJID: '" +
-								objId + "' that is irrelevant for receiver system: '" + currentSystemId + "', so " +
-								"the whole 'E1PLOGI' element would be removed from target message.");
 					}
-				});
-			}
-		});
 
-		source.normalize();
+					// If all checks above was false - remove this person from target message
+					index.drop(person);
+					decisions.add(Decision.PERSON_DROPPED, companyCode, () -> "Found person data with BUKRS: '" + companyCode +
+							"' and OBJID: '" + objId + "' that is irrelevant for receiver system: '" + currentSystemId + "', so " +
+							"the whole 'E1PLOGI' element would be removed from target message.");
+				}
+			}
+		}
 	}
 
 	/**
-	 * Method works with <code>E1PLOGI</code> {@link Node} that contains employee info.
+	 * Method routes indexed persons for fan-out to several receiver systems with the same rules as
+	 * {@link #filterPersons(HrmdDocumentIndex, SystemIdResolver, String)} applies for each receiver:
+	 * a person without active <code>E1P0001</code> segments goes to all receivers, a person whose active
+	 * segments all resolve to the same receiver goes only to it (and it's full name is corrected),
+	 * any other person is dropped for all receivers. Infotypes of a person going to one receiver,
+	 * which are not passed to that receiver, are dropped before full name correction.
 	 *
-	 * @param infoTypeParentNode  parent node of infotype (it's "E1PLOGI" element)
+	 * Persons are routed by all their <code>E1P0001</code> segments, even if infotype <tt>0001</tt> is not passed
+	 * to the receivers, like a single receiver routes them.
+	 *
+	 * @param index      index of the document to filter
+	 * @param systemIds  per-message resolver of <code>SystemID</code> from {@link DynamicConfiguration}
+	 * @param profiles   set of passed infotypes by receiver system of the fan-out
+	 *
+	 * @return receiver system by <code>E1PLOGI</code> element of each person, which goes to one receiver only
 	 */
-	private void processPersonFullNameCorrection(Node infoTypeParentNode) {
-		if (infoTypeParentNode.getNodeType() != Node.ELEMENT_NODE) return;
-		Element infoTypeParent = (Element) infoTypeParentNode;
+	Map<Node, String> routePersons(HrmdDocumentIndex index, SystemIdResolver systemIds, Map<String, InfotypeSet> profiles) {
+		Set<String> receivers = profiles.keySet();
+		Map<Node, String> routes = new IdentityHashMap<>();
+
+		for (Person person : index.getPersons()) {
+			// Receiver of the person, stays null while there are no active segments, empty when person is dropped
+			String route = null;
+			String companyCode = null;
+			String objId = null;
+
+			for (Infotype infoType : person.getInfotypes("0001")) {
+				Element futureSegment = getFutureSegment(infoType);
+				for (Element timeDependentSegmentE1P : infoType.getSegments()) {
+					if (timeDependentSegmentE1P != futureSegment && !isValidOnKeyDate(timeDependentSegmentE1P)) continue;
+
+					String segmentCompanyCode = getTextContentFromElementTag(timeDependentSegmentE1P, "BUKRS");
+					if (isNullOrEmpty(segmentCompanyCode)) continue;
+
+					String systemId = systemIds.resolve(segmentCompanyCode);
+					if (route == null || route.equals(systemId)) {
+						route = systemId;
+					} else {
+						route = "";
+					}
+					companyCode = segmentCompanyCode;
+					objId = infoType.getObjId();
+					if (route.isEmpty()) break;
+				}
+				if ("".equals(route)) break;
+			}
 
-		// Get all <tt>E1PITYP</tt> segments from the whole DOM tree (it's been modified on previous steps)
-		NodeList infoTypes = infoTypeParent.getElementsByTagName("E1PITYP");
+			// Person without active segments is kept in all target messages as is
+			if (route == null) continue;
+
+			String decisionCompanyCode = companyCode;
+			String decisionObjId = objId;
+			if (receivers.contains(route)) {
+				filterInfotypes(index, person, profiles.get(route));
+
+				// Full name correction is idempotent, so the person is corrected once, however many segments matched
+				long start = System.nanoTime();
+				processPersonFullNameCorrection(index, person);
+				statistics.add(Stage.NAMES, start);
+				routes.put(person.getElement(), route);
+
+				String receiver = route;
+				decisions.add(Decision.PERSON_KEPT, decisionCompanyCode, () -> "Found relevant person data with BUKRS: '" +
+						decisionCompanyCode + "' and OBJID: '" + decisionObjId + "' - keep this person in target message that goes to system: '" +
+						receiver + "'.");
+			} else {
+				index.drop(person);
+				decisions.add(Decision.PERSON_DROPPED, decisionCompanyCode, () -> "Found person data with BUKRS: '" + decisionCompanyCode +
+						"' and OBJID: '" + decisionObjId + "' that is irrelevant for receiver systems: '" + receivers + "', so " +
+						"the whole 'E1PLOGI' element would be removed from all target messages.");
+			}
+		}
+
+		return routes;
+	}
 
+	/**
+	 * Method works with indexed person (<code>E1PLOGI</code> {@link Node}) that contains employee info.
+	 *
+	 * @param index   index of the document, where removed fields are dropped
+	 * @param person  indexed person with it's infotypes
+	 */
+	void processPersonFullNameCorrection(HrmdDocumentIndex index, Person person) {
 		// Declare variable to remember <tt>E1PITYP</tt> segment with the value '0001' in <tt>INFTY</tt> tag
-		Element it0001 = null;
+		Infotype it0001 = null;
 		// Full name StringBuilder initialization
 		StringBuilder fullNameSb = new StringBuilder();
 
-		// Iterate over infoTypes NodeList
-		for (int i = 0; i < infoTypes.getLength(); i++) {
-			if (infoTypes.item(i).getNodeType() != Node.ELEMENT_NODE) continue;
-			Element infoType = (Element) infoTypes.item(i);
+		// Iterate over person infotypes, which remain after previous steps
+		for (Infotype infoType : person.getInfotypes()) {
+			if (infoType.isRemoved()) continue;
 
 			// Try to get <tt>INFTY</tt> string for segment
-			String infoTypeCode = getTextContentFromElementTag(infoType, "INFTY");
+			String infoTypeCode = infoType.getCode();
 
 			// Go to next iteration, if there's no <tt>INFTY</tt> string
 			if (isNullOrEmpty(infoTypeCode)) continue;
 
+			// DROP fields which must be REMOVED from time dependent segments of this infotype
+			removeFields(index, infoType);
+
 			switch (infoTypeCode) {
 				case "0001":
 					// Segment with INFTY=0001 must appear only once in <tt>E1PLOGI</tt> and we must remember it for further processing
@@ -287,25 +781,24 @@ public class HRMD_to_HRMD_filter extends AbstractTransformation {
 					break;
 				case "0002":
 					// Segment with INFTY=0002 contains time dependent segments with employee personal data
-					NodeList timeDependentSegmentsE1P = infoType.getElementsByTagName("E1P" + infoTypeCode);
+					// Infotype without segments valid on key date takes full name from it's nearest future segment
+					Element futureSegment = getFutureSegment(infoType);
 
 					// Iterate over all time dependent segments with employee info
-					for (int j = 0; j < timeDependentSegmentsE1P.getLength(); j++) {
-						if (timeDependentSegmentsE1P.item(j).getNodeType() != Node.ELEMENT_NODE) return;
-						Element timeDependentSegmentE1P = (Element) timeDependentSegmentsE1P.item(j);
+					for (Element timeDependentSegmentE1P : infoType.getSegments()) {
 
-						// Try to get employee data and the date till this segment is valid (ENDDA)
+						// Try to get employee data and check if this segment is valid on key date
 						String surname = getTextContentFromElementTag(timeDependentSegmentE1P, "NACHN");
 						String name = getTextContentFromElementTag(timeDependentSegmentE1P, "VORNA");
 						String middleName = getTextContentFromElementTag(timeDependentSegmentE1P, "MIDNM");
-						String endDate = getTextContentFromElementTag(timeDependentSegmentE1P, "ENDDA");
+						boolean valid = timeDependentSegmentE1P == futureSegment || isValidOnKeyDate(timeDependentSegmentE1P);
 
 						// Process employee surname
 						if (!isNullOrEmpty(surname)) {
 							// Remove all whitespaces
 							surname = surname.trim();
-							// If this particular time dependent segment is valid for now - append surname to full name
-							if(lastSapDayOnEarth.equals(endDate)) fullNameSb.append(surname);
+							// If this particular time dependent segment is valid on key date - append surname to full name
+							if (valid) fullNameSb.append(surname);
 							// Set normalized surname to source DOM tree
 							setTextContentToElementTag(timeDependentSegmentE1P, "NACHN", surname);
 						}
@@ -316,8 +809,8 @@ public class HRMD_to_HRMD_filter extends AbstractTransformation {
 							name = name.charAt(0) + ".";
 							// Make it upper case
 							name = name.toUpperCase();
-							// If this particular time dependent segment is valid for now - append name to full name
-							if(lastSapDayOnEarth.equals(endDate)) fullNameSb.append(" ").append(name);
+							// If this particular time dependent segment is valid on key date - append name to full name
+							if (valid) fullNameSb.append(" ").append(name);
 							// Set normalized name to source DOM tree
 							setTextContentToElementTag(timeDependentSegmentE1P, "VORNA", name);
 						}
@@ -328,46 +821,11 @@ public class HRMD_to_HRMD_filter extends AbstractTransformation {
 							middleName = middleName.charAt(0) + ".";
 							// Make it upper case
 							middleName = middleName.toUpperCase();
-							// If this particular time dependent segment is valid for now - append middle name to full name
-							if(lastSapDayOnEarth.equals(endDate)) fullNameSb.append(" ").append(middleName);
+							// If this particular time dependent segment is valid on key date - append middle name to full name
+							if (valid) fullNameSb.append(" ").append(middleName);
 							// Set normalized middle name to source DOM tree
 							setTextContentToElementTag(timeDependentSegmentE1P, "MIDNM", middleName);
 						}
-
-						// Try to get nodes which must be REMOVED from source IDoc
-						Node nachn40 = getTagNodeFromElement(timeDependentSegmentE1P, "NACHN_40");
-						Node vorna40 = getTagNodeFromElement(timeDependentSegmentE1P, "VORNA_40");
-						Node nchmc = getTagNodeFromElement(timeDependentSegmentE1P, "NCHMC");
-						Node vnamc = getTagNodeFromElement(timeDependentSegmentE1P, "VNAMC");
-						Node inits = getTagNodeFromElement(timeDependentSegmentE1P, "INITS");
-						Node fnamr = getTagNodeFromElement(timeDependentSegmentE1P, "FNAMR");
-						Node lnamr = getTagNodeFromElement(timeDependentSegmentE1P, "LNAMR");
-
-						// If node not null - REMOVE it from DOM tree
-						if (nachn40 != null) timeDependentSegmentE1P.removeChild(nachn40);
-						if (vorna40 != null) timeDependentSegmentE1P.removeChild(vorna40);
-						if (nchmc != null) timeDependentSegmentE1P.removeChild(nchmc);
-						if (vnamc != null) timeDependentSegmentE1P.removeChild(vnamc);
-						if (inits != null) timeDependentSegmentE1P.removeChild(inits);
-						if (fnamr != null) timeDependentSegmentE1P.removeChild(fnamr);
-						if (lnamr != null) timeDependentSegmentE1P.removeChild(lnamr);
-
-						// Get NodeList of additional time dependent segments in 0002 infotype
-						NodeList timeDependentSegmentsE1Q = timeDependentSegmentE1P.getElementsByTagName("E1Q" + infoTypeCode);
-
-						// Iterate over each time dependent node
-						for (int k = 0; k < timeDependentSegmentsE1Q.getLength(); k++) {
-							if (timeDependentSegmentsE1Q.item(k).getNodeType() != Node.ELEMENT_NODE) return;
-							Element timeDependentSegmentE1Q = (Element) timeDependentSegmentsE1Q.item(k);
-
-							// Try to get nodes which must be REMOVED from source IDoc
-							Node fnamr45 = getTagNodeFromElement(timeDependentSegmentE1Q, "FNAMR_45");
-							Node lnamr45 = getTagNodeFromElement(timeDependentSegmentE1Q, "LNAMR_45");
-
-							// If node not null - REMOVE it from DOM tree
-							if (fnamr45 != null) timeDependentSegmentE1Q.removeChild(fnamr45);
-							if (lnamr45 != null) timeDependentSegmentE1Q.removeChild(lnamr45);
-						}
 					}
 
 					break;
@@ -378,26 +836,16 @@ public class HRMD_to_HRMD_filter extends AbstractTransformation {
 		if (it0001 != null) {
 			// Obtain full name String
 			String fullName = fullNameSb.toString();
-			// Get NodeList with time dependent segments of 0001 infotype
-			NodeList timeDependentSegmentsE1P = it0001.getElementsByTagName("E1P0001");
-
-			// Open stream from NodeList and put all of it's records in List that wouldn't be modified during iteration
-			List<Node> timeDependentSegmentsListE1P = IntStream.range(0, timeDependentSegmentsE1P.getLength())
-					.mapToObj(timeDependentSegmentsE1P::item)
-					.collect(Collectors.toList());
-
-			// Iterate over List with collected time dependent segments
-			timeDependentSegmentsListE1P.forEach(E1P0001 -> {
-				if (E1P0001.getNodeType() != Node.ELEMENT_NODE) return;
-				Element timeDependentSegmentE1P = (Element) E1P0001;
 
+			// Iterate over time dependent segments of 0001 infotype
+			for (Element timeDependentSegmentE1P : it0001.getSegments()) {
 				// Set constructed earlier full name string to each time dependent segment (IT WILL REWRITE EXISTING NAME)
 				setTextContentToElementTag(timeDependentSegmentE1P, "ENAME", fullName);
 				setTextContentToElementTag(timeDependentSegmentE1P, "SNAME", fullName.toUpperCase());
 
 				// TODO: REMOVE THIS CALL IF YOU WANT YOUR KOSTL (МВЗ) BACK!!!
-				removeKostl(timeDependentSegmentE1P);
-			});
+				removeKostl(index, timeDependentSegmentE1P);
+			}
 		}
 	}
 
@@ -406,16 +854,130 @@ public class HRMD_to_HRMD_filter extends AbstractTransformation {
 	 *
 	 * This method must be removed from production after special date (in april 2020).
 	 *
+	 * @param index                    index of the document, where KOSTL is dropped
 	 * @param timeDependentSegmentE1P  Element that holds KOSTL (МВЗ)
 	 */
-	private void removeKostl(Element timeDependentSegmentE1P) {
-		Node kostl = getTagNodeFromElement(timeDependentSegmentE1P, "KOSTL");
+	private void removeKostl(HrmdDocumentIndex index, Element timeDependentSegmentE1P) {
+		if (dropTagNodeFromElement(index, timeDependentSegmentE1P, "KOSTL")) {
+			decisions.add(Decision.KOSTL_REMOVED, getTextContentFromElementTag(timeDependentSegmentE1P, "BUKRS"), () ->
+					"Removed KOSTL (МВЗ) from 0001 INFTY for PERNR: " + getTextContentFromElementTag(timeDependentSegmentE1P, "PERNR") + ".");
+		}
+	}
+
+	/**
+	 * Method drops fields configured with <tt>segment.&lt;segment type&gt;.remove.fields</tt> properties
+	 * from time dependent segments of the infotype and from their additional segments.
+	 *
+	 * @see SegmentFieldMask
+	 *
+	 * @param index     index of the document, where removed fields are dropped
+	 * @param infoType  infotype of a kept person
+	 */
+	private void removeFields(HrmdDocumentIndex index, Infotype infoType) {
+		List<Element> segments = infoType.getSegments();
+		if (segments.isEmpty()) return;
+
+		// All time dependent segments of the infotype have the same type
+		SegmentFieldMask mask = config().getFieldMask(segments.get(0).getNodeName());
+		if (mask == null) return;
+
+		for (Element timeDependentSegmentE1P : segments) removeFields(index, timeDependentSegmentE1P, mask);
+	}
+
+	/**
+	 * Method checks each child of the segment once: drops it, if it's a removed field,
+	 * or processes it the same way, if it's a nested segment with it's own mask.
+	 */
+	private void removeFields(HrmdDocumentIndex index, Element segment, SegmentFieldMask mask) {
+		for (Node child = segment.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child.getNodeType() != Node.ELEMENT_NODE) continue;
+
+			String name = child.getNodeName();
+			if (mask.removes(name)) {
+				index.drop(child);
+			} else if (mask.isNested(name)) {
+				removeFields(index, (Element) child, mask.getNested());
+			}
+		}
+	}
+
+	/**
+	 * Method checks if time dependent segment is valid on {@link #KEY_DATE}: <code>BEGDA</code> &le; key date
+	 * &le; <code>ENDDA</code>. Dates are compared as <tt>yyyymmdd</tt> numbers, without date objects.
+	 * Segment without <code>ENDDA</code> or with invalid dates is never valid, segment without <code>BEGDA</code>
+	 * is valid from the beginning.
+	 *
+	 * @param timeDependentSegmentE1P  time dependent segment of an infotype
+	 *
+	 * @return boolean
+	 */
+	boolean isValidOnKeyDate(Element timeDependentSegmentE1P) {
+		int endDate = parseSapDate(getTextContentFromElementTag(timeDependentSegmentE1P, "ENDDA"));
+		if (endDate < KEY_DATE) return false;
+
+		String beginDate = getTextContentFromElementTag(timeDependentSegmentE1P, "BEGDA");
+		if (isNullOrEmpty(beginDate)) return true;
+		int begin = parseSapDate(beginDate);
+		return begin >= 0 && begin <= KEY_DATE;
+	}
 
-		if (kostl != null) {
-			String pernr = getTextContentFromElementTag(timeDependentSegmentE1P, "PERNR");
-			timeDependentSegmentE1P.removeChild(kostl);
-			getTrace().addInfo("Removed KOSTL (МВЗ) from 0001 INFTY for PERNR: " + pernr + ".");
+	/**
+	 * Method finds the segment, which stands for the infotype on {@link #KEY_DATE}, when none of it's time dependent
+	 * segments is valid on key date - e.g. a person is hired or transferred to another company code after key date.
+	 * Such an infotype is taken as of it's nearest future segment (the smallest <code>BEGDA</code> after key date),
+	 * the same way as a segment delimited with <code>99991231</code> was taken before key date was introduced.
+	 * Infotype with past segments only has no future segment, so it's person stays without active segments.
+	 *
+	 * @param infoType  infotype with time dependent segments
+	 *
+	 * @return nearest future segment or <code>null</code>, if any segment is valid on key date or there's no future segment
+	 */
+	Element getFutureSegment(Infotype infoType) {
+		Element futureSegment = null;
+		int futureBeginDate = Integer.MAX_VALUE;
+		for (Element timeDependentSegmentE1P : infoType.getSegments()) {
+			if (isValidOnKeyDate(timeDependentSegmentE1P)) return null;
+
+			int beginDate = parseSapDate(getTextContentFromElementTag(timeDependentSegmentE1P, "BEGDA"));
+			int endDate = parseSapDate(getTextContentFromElementTag(timeDependentSegmentE1P, "ENDDA"));
+			if (beginDate > KEY_DATE && endDate >= beginDate && beginDate < futureBeginDate) {
+				futureSegment = timeDependentSegmentE1P;
+				futureBeginDate = beginDate;
+			}
 		}
+
+		if (futureSegment != null) {
+			String infoTypeCode = infoType.getCode();
+			String beginDate = String.valueOf(futureBeginDate);
+			decisions.add(Decision.FUTURE_SEGMENT_USED, infoTypeCode, () -> "Found no segment with INFTY: '" + infoTypeCode +
+					"' and OBJID: '" + infoType.getObjId() + "' valid on key date: '" + KEY_DATE + "' - the nearest future " +
+					"segment with BEGDA: '" + beginDate + "' is used instead.");
+		}
+		return futureSegment;
+	}
+
+	/**
+	 * @param date  date in <tt>yyyymmdd</tt> format
+	 *
+	 * @return date as <tt>yyyymmdd</tt> number or -1, if it's not a date of eight digits
+	 */
+	static int parseSapDate(String date) {
+		if (date == null || date.length() != SAP_DATE_LENGTH) return -1;
+		int value = 0;
+		for (int i = 0; i < SAP_DATE_LENGTH; i++) {
+			int digit = date.charAt(i) - '0';
+			if (digit < 0 || digit > 9) return -1;
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	/**
+	 * @return today as <tt>yyyymmdd</tt> number
+	 */
+	private static int today() {
+		LocalDate today = LocalDate.now();
+		return today.getYear() * 10000 + today.getMonthValue() * 100 + today.getDayOfMonth();
 	}
 
 	/**
@@ -427,95 +989,268 @@ public class HRMD_to_HRMD_filter extends AbstractTransformation {
 	 * @return boolean
 	 */
 	private boolean loadProperties() {
-		FilterPropertiesHandler propHandler = FilterPropertiesHandler.getInstance();
+		// All settings of the message are read from one snapshot, even if configuration is reloaded meanwhile
+		FilterConfig propHandler = configuration.get();
+		config = propHandler;
+		trace().addDebugMessage("Loaded configuration " + propHandler);
 
-		MANAGEMENT_INFOTYPES = propHandler.getListPropertyValue("management.infotypes");
+		MANAGEMENT_INFOTYPES = propHandler.getListPropertyValue(FilterConfig.MANAGEMENT_INFOTYPES);
 		if (MANAGEMENT_INFOTYPES == null) {
-			getTrace().addWarning("Can't load Management Infotypes property from 'filter.properties' file.");
+			trace().addWarning("Can't load Management Infotypes property from 'filter.properties' file.");
 			return false;
 		} else {
-			getTrace().addDebugMessage("Loaded Management Infotypes property with value: '"
+			trace().addDebugMessage("Loaded Management Infotypes property with value: '"
 					+ Arrays.toString(MANAGEMENT_INFOTYPES.toArray()) + "' successfully");
 		}
 
-		EMPLOYEE_INFOTYPES = propHandler.getListPropertyValue("employee.infotypes");
+		EMPLOYEE_INFOTYPES = propHandler.getListPropertyValue(FilterConfig.EMPLOYEE_INFOTYPES);
 		if (EMPLOYEE_INFOTYPES == null) {
-			getTrace().addWarning("Can't load Employee Infotypes property from 'filter.properties' file.");
+			trace().addWarning("Can't load Employee Infotypes property from 'filter.properties' file.");
 			return false;
 		} else {
-			getTrace().addDebugMessage("Loaded Employee Infotypes property with value: '"
+			trace().addDebugMessage("Loaded Employee Infotypes property with value: '"
 					+ Arrays.toString(EMPLOYEE_INFOTYPES.toArray()) + "' successfully");
 		}
 
+		PROCESSING_MODE = propHandler.getPropertyValue("processing.mode");
+		if (isNullOrEmpty(PROCESSING_MODE)) PROCESSING_MODE = "dom";
+		trace().addDebugMessage("Loaded Processing Mode property with value: '" + PROCESSING_MODE + "'");
+
+		String traceLevel = propHandler.getPropertyValue("trace.level");
+		TRACE_LEVEL = isNullOrEmpty(traceLevel) ? DecisionTrace.Level.FULL : DecisionTrace.Level.of(traceLevel.trim());
+		if (TRACE_LEVEL == null) {
+			trace().addWarning("Unknown Trace Level property value: '" + traceLevel + "', full trace is used.");
+			TRACE_LEVEL = DecisionTrace.Level.FULL;
+		}
+		trace().addDebugMessage("Loaded Trace Level property with value: '" + TRACE_LEVEL + "'");
+
+		String keyDate = propHandler.getPropertyValue("validity.key.date");
+		KEY_DATE = isNullOrEmpty(keyDate) ? today() : parseSapDate(keyDate.trim());
+		if (KEY_DATE < 0) {
+			trace().addWarning("Invalid Key Date property value: '" + keyDate + "', today is used.");
+			KEY_DATE = today();
+		}
+		trace().addDebugMessage("Loaded Key Date property with value: '" + KEY_DATE + "'");
+
+		TRACE_SAMPLE_RATE = getIntPropertyValue(propHandler, "trace.sample.rate", 100);
+		PARALLEL_BATCH_SIZE = getIntPropertyValue(propHandler, "parallel.batch.size", 0);
+		PARALLEL_THRESHOLD = getIntPropertyValue(propHandler, "parallel.threshold", 16);
+		PARALLEL_IDOC_WINDOW = getIntPropertyValue(propHandler, "parallel.idoc.window", 0);
+		PARALLEL_POOL_SIZE = getIntPropertyValue(propHandler, "parallel.pool.size", 0);
+		trace().addDebugMessage("Loaded Parallel Processing properties with values: batch size '" + PARALLEL_BATCH_SIZE
+				+ "', threshold '" + PARALLEL_THRESHOLD + "', IDoc window '" + PARALLEL_IDOC_WINDOW
+				+ "', pool size '" + PARALLEL_POOL_SIZE + "'");
+
+		MEMORY_BOUNDED_THRESHOLD_MB = getIntPropertyValue(propHandler, "memory.bounded.threshold.mb", 0);
+		MEMORY_BOUNDED_SPILL = !"false".equalsIgnoreCase(propHandler.getPropertyValue("memory.bounded.spill"));
+		trace().addDebugMessage("Loaded Memory Bounded Mode properties with values: threshold '"
+				+ MEMORY_BOUNDED_THRESHOLD_MB + "' MB, spill '" + MEMORY_BOUNDED_SPILL + "'");
+
 		return true;
 	}
 
 	/**
-	 * Method parses incoming message from {@link InputStream} in {@link TransformationInput}
-	 * to DOM {@link Document} or returns null if any error occurs.
+	 * Method returns integer property value or the default one with warning in trace, if the value can't be parsed.
+	 *
+	 * @param propHandler   configuration snapshot of the message
+	 * @param key           property name
+	 * @param defaultValue  value of missing or invalid property
+	 *
+	 * @return int
+	 */
+	private int getIntPropertyValue(FilterConfig propHandler, String key, int defaultValue) {
+		String value = propHandler.getPropertyValue(key);
+		if (isNullOrEmpty(value)) return defaultValue;
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException nfe) {
+			trace().addWarning("Can't parse '" + key + "' property value: '" + value + "', default value '"
+					+ defaultValue + "' is used.");
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Method reads the head of incoming message to check it's size against {@link #MEMORY_BOUNDED_THRESHOLD_MB}.
+	 * Only {@link #MESSAGE_PROBE_SIZE} bytes are read at first: a message, which ends within them, is not a huge one,
+	 * and a message, which has at least the threshold together with {@link InputStream#available()} bytes, is.
+	 * {@link InputStream#available()} may be 0 for any stream, so otherwise the message is read on up to the threshold
+	 * in DOM mode, which keeps the whole message in heap anyway. Streaming mode doesn't read it on, it's IDocs are
+	 * processed in parallel only until the threshold, see {@link HrmdStreamingFilter#limitIdocWindow(long)}.
+	 *
+	 * @param is  source message
+	 *
+	 * @return read head of the message or <code>null</code>, if memory-bounded mode is disabled
+	 */
+	private MessageHead readMessageHead(InputStream is) throws IOException {
+		if (MEMORY_BOUNDED_THRESHOLD_MB <= 0) return null;
+
+		int threshold = getMemoryBoundedThreshold();
+		MessageHead head = new MessageHead();
+		head.readFrom(is, Math.min(MESSAGE_PROBE_SIZE, threshold));
+		if (!head.isComplete() && head.size() + is.available() < threshold && !streamingMode.equals(PROCESSING_MODE)) {
+			head.readFrom(is, threshold);
+		}
+		return head;
+	}
+
+	/**
+	 * @return {@link #MEMORY_BOUNDED_THRESHOLD_MB} in bytes, limited by the maximal size of a byte array
+	 */
+	private int getMemoryBoundedThreshold() {
+		return (int) Math.min(MEMORY_BOUNDED_THRESHOLD_MB * 1024L * 1024L, Integer.MAX_VALUE - 8);
+	}
+
+	/**
+	 * Method processes huge incoming message keeping only a bounded part of it in heap: the message is streamed
+	 * with {@link HrmdStreamingFilter} without parallel IDocs (which are kept in memory as a whole), and target
+	 * message is spilled to a temporary file through a buffered {@link FileChannel} while source message is read.
+	 * The file is transferred to target message at the end, so target stream receives the whole message at once
+	 * and already filtered persons don't pile up in heap. If streaming fails, nothing is transferred to target
+	 * message, the file is deleted and the failure is thrown to the caller.
 	 *
-	 * @param ti  TransformationInput object instance
+	 * @param is               source message
+	 * @param os               target message
+	 * @param systemIds        per-message resolver of <code>SystemID</code> from {@link DynamicConfiguration}
+	 * @param receiverService  <tt>ReceiverService</tt> from {@link InputHeader} object
+	 *
+	 * @throws IOException if the message can't be streamed or spilled
+	 */
+	private void processBoundedFiltration(InputStream is, OutputStream os, SystemIdResolver systemIds, String receiverService)
+			throws IOException {
+		if (!MEMORY_BOUNDED_SPILL) {
+			processStreamingFiltration(is, os, systemIds, receiverService, 0);
+			return;
+		}
+
+		Path spill = Files.createTempFile("hrmd-filter-", ".xml");
+		try (FileChannel channel = FileChannel.open(spill, StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.DELETE_ON_CLOSE)) {
+			// Spill stream is not closed, it would close the channel before transfer
+			OutputStream spillStream = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+			// Failure skips the transfer, so target message gets nothing of a message, which can't be streamed
+			processStreamingFiltration(is, spillStream, systemIds, receiverService, 0);
+			spillStream.flush();
+
+			long size = channel.size();
+			trace().addDebugMessage("Spilled " + size + " bytes of target message to temporary file: '" + spill + "'");
+
+			WritableByteChannel target = Channels.newChannel(os);
+			for (long position = 0; position < size; ) {
+				position += channel.transferTo(position, size - position, target);
+			}
+		} finally {
+			// The file is deleted on close, unless the channel couldn't be opened
+			Files.deleteIfExists(spill);
+		}
+	}
+
+	/**
+	 * Method streams incoming message from {@link InputStream} of {@link TransformationInput} to {@link OutputStream}
+	 * of {@link TransformationOutput} with {@link HrmdStreamingFilter}, which applies the same filtration rules
+	 * as DOM processing.
+	 *
+	 * @param is               source message
+	 * @param os               target message
+	 * @param systemIds        per-message resolver of <code>SystemID</code> from {@link DynamicConfiguration}
+	 * @param receiverService  <tt>ReceiverService</tt> from {@link InputHeader} object
+	 * @param idocWindow       maximal number of IDocs processed at the same time
+	 *
+	 * @throws IOException if the message can't be streamed - part of it may be already written to target message
+	 */
+	private void processStreamingFiltration(InputStream is, OutputStream os, SystemIdResolver systemIds,
+											String receiverService, int idocWindow) throws IOException {
+		trace().addDebugMessage("Started streaming processing of HRMD_A09 XML.");
+		try {
+			new HrmdStreamingFilter(this, PARALLEL_BATCH_SIZE, PARALLEL_THRESHOLD, idocWindow, PARALLEL_POOL_SIZE)
+					.limitIdocWindow(MEMORY_BOUNDED_THRESHOLD_MB > 0 ? getMemoryBoundedThreshold() : 0)
+					.filter(is, os, systemIds, getCurrentSystemId(receiverService));
+			trace().addDebugMessage("Finished streaming processing of HRMD_A09 XML.");
+		} catch (ParserConfigurationException pce) {
+			throw new IOException("Encountered ParserConfigurationException during incoming message streaming", pce);
+		} catch (XMLStreamException xse) {
+			throw new IOException("Encountered XMLStreamException during incoming message streaming", xse);
+		}
+	}
+
+	/**
+	 * Method parses incoming message from {@link InputStream} of {@link TransformationInput}
+	 * to DOM {@link Document}.
+	 *
+	 * @param is  source message
 	 *
 	 * @return Document
+	 *
+	 * @throws IOException if the message can't be read or parsed, the same way as in streaming mode
 	 */
-	private Document getDocumentFromTransformationInput(TransformationInput ti) {
-		getTrace().addDebugMessage("Started to parse HRMD_A09 XML to DOM Document.");
-		try (InputStream is = ti.getInputPayload().getInputStream()){
-			DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-			DocumentBuilder db = dbf.newDocumentBuilder();
-			Document doc = db.parse(is);
-			getTrace().addDebugMessage("Finished parsing of HRMD_A09 XML to DOM Document.");
+	private Document getDocumentFromInputStream(InputStream is) throws IOException {
+		trace().addDebugMessage("Started to parse HRMD_A09 XML to DOM Document.");
+		try {
+			Document doc = parseDocument(is);
+			trace().addDebugMessage("Finished parsing of HRMD_A09 XML to DOM Document.");
 			return doc;
-		} catch (IOException ioe) {
-			getTrace().addWarning("Encountered IOException during incoming message parsing ", ioe);
 		} catch (ParserConfigurationException pce) {
-			getTrace().addWarning("Encountered ParserConfigurationException during incoming message parsing ", pce);
+			throw new IOException("Encountered ParserConfigurationException during incoming message parsing", pce);
 		} catch (SAXException se) {
-			getTrace().addWarning("Encountered SAXException during incoming message parsing ", se);
+			throw new IOException("Encountered SAXException during incoming message parsing", se);
 		}
-		return null;
 	}
 
 	/**
-	 * Method parses DOM {@link Document} to {@link String}
+	 * Method serializes indexed DOM {@link Document} straight into {@link OutputStream}
+	 * of {@link TransformationOutput} through a buffered UTF-8 stream,
+	 * so no intermediate String or byte array copy of the whole message is created.
+	 * Nodes dropped in the index are skipped with all of their descendants in the same pass.
 	 *
-	 * @param doc  Document object instance
+	 * @param os     target message
+	 * @param index  index of filtered Document
 	 *
-	 * @return String
+	 * @throws IOException if target message can't be written, it is incomplete then
 	 */
-	private String getXmlStringFromDocument(Document doc) {
-		try {
-			DOMSource domSource = new DOMSource(doc);
-			StringWriter writer = new StringWriter();
-			StreamResult result = new StreamResult(writer);
-			TransformerFactory tf = TransformerFactory.newInstance();
-			Transformer transformer = tf.newTransformer();
-			transformer.transform(domSource, result);
-			return writer.toString();
-		} catch(TransformerException ex) {
-			getTrace().addWarning("Encountered TransformerException while trying to parse DOM Document to XML string ", ex);
-			return null;
-		}
+	private void writeDocumentToOutputStream(OutputStream os, HrmdDocumentIndex index) throws IOException {
+		writeDocument(index, os);
+		trace().addDebugMessage("Finished writing result message to TransformationOutput");
 	}
 
 	/**
-	 * Method writes XML message string after mapping into {@link OutputStream}
-	 * in {@link TransformationOutput} object instance.
+	 * Method parses HRMD_A09 XML to DOM {@link Document}.
+	 *
+	 * @param is  source message
 	 *
-	 * @param to   TransformationOutput object instance
-	 * @param xml  String target XML message payload
+	 * @return Document
 	 */
-	private void writeXMLToTransformationOutput(TransformationOutput to, String xml) {
-		try (OutputStream os = to.getOutputPayload().getOutputStream()) {
-			os.write(xml.getBytes(StandardCharsets.UTF_8));
-			getTrace().addDebugMessage("Finished writing result message to TransformationOutput");
-		} catch (Exception e) {
-			getTrace().addWarning("Encountered error during writing to TransformationOutput ", e);
-		}
+	Document parseDocument(InputStream is) throws ParserConfigurationException, SAXException, IOException {
+		DocumentBuilder db = XmlFactories.documentBuilder();
+		return db.parse(is);
 	}
 
 	/**
-	 * Utility method to get text content from tag inside given element.
+	 * Method writes indexed DOM {@link Document} to {@link OutputStream} as UTF-8 XML,
+	 * skipping all nodes dropped in the index.
+	 *
+	 * @param index  index of filtered Document
+	 * @param os     target stream, is not closed
+	 */
+	void writeDocument(HrmdDocumentIndex index, OutputStream os) throws IOException {
+		writeDocument(index, os, index::isDropped);
+	}
+
+	/**
+	 * Method writes indexed DOM {@link Document} to {@link OutputStream} as UTF-8 XML,
+	 * skipping all elements accepted by the given predicate.
+	 *
+	 * @param index  index of filtered Document
+	 * @param os     target stream, is not closed
+	 * @param skip   predicate of elements to skip with their subtrees
+	 */
+	void writeDocument(HrmdDocumentIndex index, OutputStream os, Predicate<Node> skip) throws IOException {
+		XmlSerializer serializer = new XmlSerializer(new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8)));
+		serializer.writeNode(index.getDocument(), skip);
+		serializer.flush();
+	}
+
+	/**
+	 * Utility method to get text content from tag, which is a direct child of given element.
 	 *
 	 * @param element  element to walk through
 	 * @param tagName  name of tag with target text content
@@ -523,45 +1258,72 @@ public class HRMD_to_HRMD_filter extends AbstractTransformation {
 	 * @return String
 	 */
 	private String getTextContentFromElementTag(Element element, String tagName) {
-		return Optional.ofNullable(element)
-				.map(elem -> elem.getElementsByTagName(tagName))
-				.map(chldrn -> chldrn.item(0))
-				.map(Node::getTextContent)
-				.orElse("");
+		Node tagNode = getTagNodeFromElement(element, tagName);
+		return tagNode == null ? "" : tagNode.getTextContent();
 	}
 
 	/**
-	 * Utility method to set text content to tag inside given DOM {@link Element}.
+	 * Utility method to set text content to tag, which is a direct child of given DOM {@link Element}.
 	 *
 	 * @param element  element to walk through
 	 * @param tagName  name of tag with target text content
 	 * @param content  text content to set
 	 */
 	private void setTextContentToElementTag(Element element, String tagName, String content) {
-		Node tagNode = Optional.ofNullable(element)
-				.map(elem -> elem.getElementsByTagName(tagName))
-				.map(chldrn -> chldrn.item(0))
-				.orElse(null);
-
-		if (tagNode == null || tagNode.getNodeType() != Node.ELEMENT_NODE) return;
-
-		Element tag = (Element) tagNode;
-		tag.setTextContent(content);
+		Node tagNode = getTagNodeFromElement(element, tagName);
+		if (tagNode != null) tagNode.setTextContent(content);
 	}
 
 	/**
-	 * Utility method to get node tag from given DOM {@link Element}.
+	 * Utility method to get node tag from direct children of given DOM {@link Element}.
+	 *
+	 * Only direct children are checked and the search stops at the first match, so reading a field
+	 * of a segment never scans nested segments (like <code>E1Q0002</code> inside <code>E1P0002</code>).
 	 *
 	 * @param element  element to walk through
 	 * @param tagName  name of tag
 	 *
-	 * @return {@link Node}
+	 * @return {@link Element} or <code>null</code>, if there's no such tag
+	 */
+	private Element getTagNodeFromElement(Element element, String tagName) {
+		if (element == null) return null;
+		for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child.getNodeType() == Node.ELEMENT_NODE && tagName.equals(child.getNodeName())) return (Element) child;
+		}
+		return null;
+	}
+
+	/**
+	 * Utility method to drop the first not yet dropped tag, which is a direct child of given DOM {@link Element}.
+	 *
+	 * @param index    index of the document
+	 * @param element  element to walk through
+	 * @param tagName  name of tag to drop
+	 *
+	 * @return <code>true</code>, if the tag was found and dropped
+	 */
+	private boolean dropTagNodeFromElement(HrmdDocumentIndex index, Element element, String tagName) {
+		for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child.getNodeType() == Node.ELEMENT_NODE && tagName.equals(child.getNodeName()) && !index.isDropped(child)) {
+				index.drop(child);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return statistics of the current message
+	 */
+	FilterStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * @return trace given on construction or trace of PI mapping runtime
 	 */
-	private Node getTagNodeFromElement(Element element, String tagName) {
-		return Optional.ofNullable(element)
-				.map(elem -> elem.getElementsByTagName(tagName))
-				.map(chldrn -> chldrn.item(0))
-				.orElse(null);
+	private MappingTrace trace() {
+		return trace != null ? trace : MappingTrace.of(getTrace());
 	}
 
 	/**
@@ -0,0 +1,281 @@
+package ru.sap.po.mapping.hrmd.filter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Index of HRMD_A IDoc {@link Document}, built in a single pass right after parsing:
+ * <code>E1PLOGI</code> (person) &rarr; <code>E1PITYP</code> by <code>INFTY</code> &rarr; time-dependent
+ * <code>E1Pnnnn</code> segments.
+ *
+ * All filtration stages work with this index instead of searching the DOM tree with
+ * <code>getElementsByTagName</code> again, so the total work stays linear in document size.
+ * Stages don't remove nodes from the DOM tree - they drop them in the index (mark-and-sweep), so the following
+ * stages don't see them, and dropped subtrees are skipped in one pass on serialization,
+ * see {@link XmlSerializer#writeNode(Node, java.util.function.Predicate)}. This way no per-node
+ * <code>removeChild</code> and no <code>normalize</code> of the whole tree is needed.
+ */
+final class HrmdDocumentIndex {
+
+	private static final String PERSON_ELEMENT = "E1PLOGI";
+	private static final String INFOTYPE_ELEMENT = "E1PITYP";
+
+	/**
+	 * Person (<code>E1PLOGI</code> element) with it's infotypes.
+	 */
+	static final class Person {
+		private final Element element;
+		private final List<Infotype> infotypes = new ArrayList<>();
+		private final Map<String, List<Infotype>> infotypesByCode = new LinkedHashMap<>();
+		private boolean removed;
+
+		private Person(Element element) {
+			this.element = element;
+		}
+
+		Element getElement() {
+			return element;
+		}
+
+		/**
+		 * @return all infotypes of the person in document order
+		 */
+		List<Infotype> getInfotypes() {
+			return infotypes;
+		}
+
+		/**
+		 * @return infotypes of the person with given <code>INFTY</code> code in document order
+		 */
+		List<Infotype> getInfotypes(String code) {
+			List<Infotype> found = infotypesByCode.get(code);
+			return found == null ? Collections.<Infotype>emptyList() : found;
+		}
+
+		boolean isRemoved() {
+			return removed;
+		}
+	}
+
+	/**
+	 * Infotype (<code>E1PITYP</code> element) with it's <code>INFTY</code>, <code>OBJID</code>
+	 * and time-dependent segments.
+	 */
+	static final class Infotype {
+		private final Element element;
+		private final Person person;
+		private final String code;
+		private final String objId;
+		private final List<Element> segments;
+		private boolean removed;
+
+		private Infotype(Element element, Person person, String code, String objId, List<Element> segments) {
+			this.element = element;
+			this.person = person;
+			this.code = code;
+			this.objId = objId;
+			this.segments = segments;
+		}
+
+		Element getElement() {
+			return element;
+		}
+
+		/**
+		 * @return person of the infotype or <code>null</code>, if infotype is not a part of <code>E1PLOGI</code>
+		 */
+		Person getPerson() {
+			return person;
+		}
+
+		/**
+		 * @return value of <code>INFTY</code> tag or empty string
+		 */
+		String getCode() {
+			return code;
+		}
+
+		/**
+		 * @return value of <code>OBJID</code> tag or empty string
+		 */
+		String getObjId() {
+			return objId;
+		}
+
+		/**
+		 * @return time-dependent <code>E1Pnnnn</code> segments, where <code>nnnn</code> is the infotype code
+		 */
+		List<Element> getSegments() {
+			return segments;
+		}
+
+		/**
+		 * @return <code>true</code>, if infotype itself or it's person was removed from the document
+		 */
+		boolean isRemoved() {
+			return removed || (person != null && person.removed);
+		}
+	}
+
+	private final Document document;
+	private final List<Person> persons = new ArrayList<>();
+	private final List<Infotype> infotypes = new ArrayList<>();
+
+	/**
+	 * Nodes, which must not be written to target message. DOM nodes have no value semantics,
+	 * so they are compared by identity.
+	 */
+	private final Set<Node> dropped = Collections.newSetFromMap(new IdentityHashMap<>());
+
+	private HrmdDocumentIndex(Document document) {
+		this.document = document;
+	}
+
+	/**
+	 * Method builds index of the given {@link Document} in one walk through it's elements.
+	 *
+	 * @param document  HRMD_A IDoc message or a part of it
+	 *
+	 * @return HrmdDocumentIndex
+	 */
+	static HrmdDocumentIndex build(Document document) {
+		HrmdDocumentIndex index = new HrmdDocumentIndex(document);
+		index.walk(document, null);
+		return index;
+	}
+
+	Document getDocument() {
+		return document;
+	}
+
+	/**
+	 * @return all persons of the document in document order
+	 */
+	List<Person> getPersons() {
+		return persons;
+	}
+
+	/**
+	 * @return all infotypes of the document in document order, including the ones outside of persons
+	 */
+	List<Infotype> getInfotypes() {
+		return infotypes;
+	}
+
+	/**
+	 * @return number of infotypes, which are not removed from the document
+	 */
+	int getRemainingInfotypesCount() {
+		int count = 0;
+		for (Infotype infotype : infotypes) {
+			if (!infotype.isRemoved()) count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Method drops the whole person from target message.
+	 */
+	void drop(Person person) {
+		person.removed = true;
+		dropped.add(person.element);
+	}
+
+	/**
+	 * Method drops the whole infotype from target message.
+	 */
+	void drop(Infotype infotype) {
+		infotype.removed = true;
+		dropped.add(infotype.element);
+	}
+
+	/**
+	 * Method drops a single node (e.g. a field of time-dependent segment) from target message.
+	 */
+	void drop(Node node) {
+		dropped.add(node);
+	}
+
+	/**
+	 * @return <code>true</code>, if the node itself was dropped (dropped ancestors are not checked)
+	 */
+	boolean isDropped(Node node) {
+		return !dropped.isEmpty() && dropped.contains(node);
+	}
+
+	/**
+	 * @return number of persons, which are dropped from the document
+	 */
+	int getDroppedPersonsCount() {
+		int count = 0;
+		for (Person person : persons) {
+			if (person.removed) count++;
+		}
+		return count;
+	}
+
+	private void walk(Node parent, Person person) {
+		for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child.getNodeType() != Node.ELEMENT_NODE) continue;
+			Element element = (Element) child;
+
+			if (PERSON_ELEMENT.equals(element.getTagName())) {
+				Person childPerson = new Person(element);
+				persons.add(childPerson);
+				walk(element, childPerson);
+			} else if (INFOTYPE_ELEMENT.equals(element.getTagName())) {
+				addInfotype(element, person);
+			} else {
+				walk(element, person);
+			}
+		}
+	}
+
+	/**
+	 * Method collects <code>INFTY</code>, <code>OBJID</code> and time-dependent segments
+	 * from direct children of <code>E1PITYP</code> element.
+	 */
+	private void addInfotype(Element element, Person person) {
+		String code = "";
+		String objId = "";
+		List<Element> children = new ArrayList<>();
+
+		for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child.getNodeType() != Node.ELEMENT_NODE) continue;
+			Element field = (Element) child;
+
+			if ("INFTY".equals(field.getTagName())) {
+				if (code.isEmpty()) code = field.getTextContent();
+			} else if ("OBJID".equals(field.getTagName())) {
+				if (objId.isEmpty()) objId = field.getTextContent();
+			} else {
+				children.add(field);
+			}
+		}
+
+		// Time-dependent segments are named after the infotype code, which could be placed after them
+		String segmentName = "E1P" + code;
+		List<Element> segments = new ArrayList<>();
+		for (Element child : children) {
+			if (segmentName.equals(child.getTagName())) segments.add(child);
+		}
+
+		Infotype infotype = new Infotype(element, person, code, objId, segments);
+		infotypes.add(infotype);
+
+		if (person != null) {
+			person.infotypes.add(infotype);
+			person.infotypesByCode.computeIfAbsent(code, key -> new ArrayList<>()).add(infotype);
+		}
+	}
+
+}
@@ -0,0 +1,564 @@
+package ru.sap.po.mapping.hrmd.filter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.Text;
+
+import ru.sap.po.mapping.hrmd.filter.FilterStatistics.Stage;
+import ru.sap.po.mapping.hrmd.filter.config.InfotypeSet;
+
+/**
+ * StAX processing engine of {@link HRMD_to_HRMD_filter}.
+ *
+ * Incoming message is read with {@link XMLStreamReader} and written to the target stream on the fly.
+ * Only one person (<code>E1PLOGI</code> element) at a time is collected to a small DOM {@link Document}.
+ * Routing decision for a person depends only on it's own <code>E1P0001</code> segments, so each person is
+ * filtered with the same rules as in DOM mode and then either written to the target message or discarded.
+ * Peak memory is therefore bounded by the largest person, not by the whole message.
+ *
+ * <code>E1PITYP</code> elements outside of persons are collected and filtered by infotype only.
+ * Everything else (<code>EDI_DC40</code> control records, comments etc.) is copied to the target message as is.
+ *
+ * Persons may be processed in parallel: they are collected in batches of {@link #batchSize} persons
+ * (each in it's own {@link Document}), filtered and serialized as {@link RecursiveAction} tasks on
+ * a dedicated {@link ForkJoinPool} (see {@link WorkerPools}) and written to the target message in their original order.
+ * Multi-IDoc packets may be processed in parallel too: each <code>IDOC</code> element is collected to it's own
+ * {@link Document} and submitted to the pool at once, up to {@link #idocWindow} IDocs are processed at the same time
+ * and they are written to the target message in their original order as well.
+ * Reading the stream and writing the target message stay sequential.
+ *
+ * Target message is byte-equivalent to the one produced in DOM mode.
+ *
+ * Persons are written before the rest of the message is read, so a malformed message fails only after a part
+ * of it is written. The failure is thrown to the caller, which must discard the target message, and collected
+ * elements are discarded with their tasks - nothing of the failed message is written after the failure.
+ */
+final class HrmdStreamingFilter {
+
+	private static final String PERSON_ELEMENT = "E1PLOGI";
+	private static final String INFOTYPE_ELEMENT = "E1PITYP";
+	private static final String IDOC_ELEMENT = "IDOC";
+
+	private final HRMD_to_HRMD_filter mapping;
+	private final DocumentBuilder documentBuilder;
+
+	/**
+	 * Set of all infotypes which must be passed to the receiver, is resolved once per message.
+	 */
+	private InfotypeSet inftyToPass;
+
+	/**
+	 * Number of persons processed together in parallel, persons are processed one by one, if it is less than 2.
+	 */
+	private final int batchSize;
+
+	/**
+	 * Batch is split into tasks until a task has no more persons than the threshold.
+	 */
+	private final int threshold;
+
+	/**
+	 * Maximal number of IDocs processed at the same time, IDocs are streamed as any other element, if it is less than 2.
+	 */
+	private final int idocWindow;
+
+	/**
+	 * Size of source message in bytes, from which IDocs are streamed as any other element, 0 - no limit.
+	 */
+	private long idocSizeLimit;
+
+	/**
+	 * Source message, which is counted for {@link #idocSizeLimit}.
+	 */
+	private CountingInputStream source;
+
+	/**
+	 * Pool of parallel tasks or <code>null</code>, if neither persons nor IDocs are processed in parallel.
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * Collected persons and IDocs, which are not written to target message yet.
+	 */
+	private final Deque<PendingElement> pending = new ArrayDeque<>();
+
+	/**
+	 * Text between the last collected element and the current event.
+	 */
+	private final StringBuilder pendingText = new StringBuilder();
+
+	/**
+	 * Person or IDoc collected for parallel processing with the text preceding it in source message.
+	 */
+	private static final class PendingElement {
+		private final String leadingText;
+		private final Document document;
+
+		/**
+		 * Task of an IDoc, persons of a batch are processed together and have no own task.
+		 */
+		private ForkJoinTask<?> task;
+
+		/**
+		 * Statistics of the IDoc task, which are merged into the statistics of the message, when the task is joined.
+		 */
+		private FilterStatistics statistics;
+		private String markup;
+
+		private PendingElement(String leadingText, Document document) {
+			this.leadingText = leadingText;
+			this.document = document;
+		}
+	}
+
+	HrmdStreamingFilter(HRMD_to_HRMD_filter mapping) throws ParserConfigurationException {
+		this(mapping, 0, 0, 0, 0);
+	}
+
+	/**
+	 * @param mapping      mapping with filtration rules
+	 * @param batchSize    number of persons processed together in parallel, 0 or 1 - no parallel processing
+	 * @param threshold    maximal number of persons in one parallel task
+	 * @param idocWindow   maximal number of IDocs processed at the same time, 0 or 1 - no parallel processing
+	 * @param parallelism  number of worker threads of parallel tasks, 0 - number of available processors
+	 */
+	HrmdStreamingFilter(HRMD_to_HRMD_filter mapping, int batchSize, int threshold, int idocWindow, int parallelism)
+			throws ParserConfigurationException {
+		this.mapping = mapping;
+		this.documentBuilder = XmlFactories.documentBuilder();
+		this.batchSize = batchSize;
+		this.threshold = Math.max(1, threshold);
+		this.idocWindow = idocWindow;
+		this.pool = batchSize > 1 || idocWindow > 1 ? WorkerPools.get(parallelism) : null;
+	}
+
+	/**
+	 * Method limits processing of IDocs in parallel by size of source message. Collected IDocs are kept in memory
+	 * as a whole, so a message, which size is not known before it is streamed, stops collecting them, once
+	 * the given number of bytes of it is read.
+	 *
+	 * @param size  size of source message in bytes, 0 - no limit
+	 *
+	 * @return this filter
+	 */
+	HrmdStreamingFilter limitIdocWindow(long size) {
+		this.idocSizeLimit = size;
+		return this;
+	}
+
+	/**
+	 * Method streams HRMD_A IDoc message from {@link InputStream} to {@link OutputStream}, applying infotypes
+	 * and persons filtration to each <code>E1PLOGI</code> element.
+	 *
+	 * @param is               source HRMD_A IDoc message
+	 * @param os               target message
+	 * @param systemIds        per-message resolver of <code>SystemID</code> from Dynamic Configuration
+	 * @param currentSystemId  <tt>ReceiverService</tt> of the current message or <code>null</code>,
+	 *                         if persons filtration can not be performed
+	 *
+	 * @throws XMLStreamException if the message is malformed, target message is incomplete then
+	 * @throws IOException        if the message can't be read or written, target message is incomplete then
+	 */
+	void filter(InputStream is, OutputStream os, SystemIdResolver systemIds, String currentSystemId)
+			throws XMLStreamException, IOException {
+		inftyToPass = mapping.getInfotypesToPass(currentSystemId);
+		source = new CountingInputStream(is);
+		XMLStreamReader reader = XmlFactories.inputFactory().createXMLStreamReader(source);
+		Writer writer = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
+		XmlSerializer serializer = new XmlSerializer(writer);
+
+		try {
+			serializer.writeDeclaration();
+
+			// Depth of the current element outside of collected segments
+			int depth = 0;
+
+			while (reader.hasNext()) {
+				int event = reader.next();
+
+				// Text between collected elements is kept with them, any other event is written after them
+				if (!pending.isEmpty()) {
+					if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.SPACE) {
+						pendingText.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+						continue;
+					}
+					if (event != XMLStreamConstants.START_ELEMENT || !isCollected(reader.getLocalName())) {
+						writePending(serializer, systemIds, currentSystemId);
+					}
+				}
+
+				switch (event) {
+					case XMLStreamConstants.START_ELEMENT:
+						if (IDOC_ELEMENT.equals(reader.getLocalName()) && collectsIdocs()) {
+							collectIdoc(reader, serializer, systemIds, currentSystemId);
+						} else if (PERSON_ELEMENT.equals(reader.getLocalName()) && batchSize > 1) {
+							collectPerson(reader, serializer, systemIds, currentSystemId);
+						} else if (PERSON_ELEMENT.equals(reader.getLocalName())) {
+							processPerson(reader, serializer, systemIds, currentSystemId);
+						} else if (INFOTYPE_ELEMENT.equals(reader.getLocalName())) {
+							processInfotype(reader, serializer);
+						} else {
+							writeStartElement(reader, serializer);
+							depth++;
+						}
+						break;
+					case XMLStreamConstants.END_ELEMENT:
+						serializer.writeEndElement(reader.getLocalName());
+						depth--;
+						break;
+					case XMLStreamConstants.CHARACTERS:
+					case XMLStreamConstants.SPACE:
+						// Whitespaces outside of the root element are not kept in DOM
+						if (depth > 0) {
+							serializer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+						}
+						break;
+					case XMLStreamConstants.CDATA:
+						serializer.writeCData(reader.getText());
+						break;
+					case XMLStreamConstants.COMMENT:
+						serializer.writeComment(reader.getText());
+						break;
+					case XMLStreamConstants.PROCESSING_INSTRUCTION:
+						serializer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+						break;
+					default:
+						// DTD, entity declarations and end of document have no output
+						break;
+				}
+			}
+
+			if (!pending.isEmpty()) writePending(serializer, systemIds, currentSystemId);
+			serializer.flush();
+		} catch (XMLStreamException | IOException | RuntimeException e) {
+			discardPending();
+			throw e;
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Method cancels tasks of collected elements of a failed message and forgets the elements.
+	 */
+	private void discardPending() {
+		for (PendingElement element : pending) {
+			if (element.task != null) element.task.cancel(false);
+		}
+		pending.clear();
+		pendingText.setLength(0);
+	}
+
+	/**
+	 * Method collects the current <code>E1PLOGI</code> element to DOM, filters it's infotypes and decides
+	 * whether the person must be kept. Kept person is written to target message, dropped one is discarded.
+	 */
+	private void processPerson(XMLStreamReader reader, XmlSerializer serializer, SystemIdResolver systemIds,
+							   String currentSystemId) throws XMLStreamException, IOException {
+		Document person = readDocument(reader);
+		filterDocument(person, serializer, systemIds, currentSystemId, mapping.getStatistics());
+	}
+
+	/**
+	 * @return <code>true</code>, if element with the given name is collected for parallel processing
+	 */
+	private boolean isCollected(String name) {
+		return (IDOC_ELEMENT.equals(name) && collectsIdocs()) || (PERSON_ELEMENT.equals(name) && batchSize > 1);
+	}
+
+	/**
+	 * @return <code>true</code>, if IDocs are collected for parallel processing at the current position of the message
+	 */
+	private boolean collectsIdocs() {
+		return idocWindow > 1 && (idocSizeLimit <= 0 || source.getCount() < idocSizeLimit);
+	}
+
+	/**
+	 * Method collects the current <code>E1PLOGI</code> element to DOM and adds it to the batch.
+	 * Full batch is processed at once.
+	 */
+	private void collectPerson(XMLStreamReader reader, XmlSerializer serializer, SystemIdResolver systemIds,
+							   String currentSystemId) throws XMLStreamException, IOException {
+		pending.add(new PendingElement(pendingText.toString(), readDocument(reader)));
+		pendingText.setLength(0);
+
+		if (pending.size() >= batchSize) writePending(serializer, systemIds, currentSystemId);
+	}
+
+	/**
+	 * Method collects the current <code>IDOC</code> element to DOM and submits it to the pool at once.
+	 * If the window of IDocs is full, the first one is waited for and written to target message.
+	 */
+	private void collectIdoc(XMLStreamReader reader, XmlSerializer serializer, SystemIdResolver systemIds,
+							 String currentSystemId) throws XMLStreamException, IOException {
+		PendingElement idoc = new PendingElement(pendingText.toString(), readDocument(reader));
+		pendingText.setLength(0);
+
+		idoc.statistics = new FilterStatistics();
+		idoc.task = pool.submit(() -> serialize(idoc, systemIds, currentSystemId, idoc.statistics));
+		pending.add(idoc);
+
+		while (pending.size() >= idocWindow) writeFirstPending(serializer, systemIds, currentSystemId);
+	}
+
+	/**
+	 * Method filters and serializes collected persons in parallel, then writes all collected elements
+	 * to target message in their original order, followed by the text after the last element.
+	 * Statistics of the batch are merged into the statistics of the message once.
+	 */
+	private void writePending(XmlSerializer serializer, SystemIdResolver systemIds, String currentSystemId)
+			throws IOException {
+		if (batchSize > 1) {
+			PendingElement[] batch = pending.toArray(new PendingElement[0]);
+			BatchTask task = new BatchTask(batch, systemIds, currentSystemId, 0, batch.length);
+			try {
+				pool.invoke(task);
+			} catch (UncheckedIOException uioe) {
+				throw uioe.getCause();
+			}
+			mapping.getStatistics().merge(task.statistics);
+		}
+
+		while (!pending.isEmpty()) writeFirstPending(serializer, systemIds, currentSystemId);
+		serializer.writeCharacters(pendingText.toString());
+		pendingText.setLength(0);
+	}
+
+	/**
+	 * Method writes the first collected element to target message, waiting for it's task if needed.
+	 */
+	private void writeFirstPending(XmlSerializer serializer, SystemIdResolver systemIds, String currentSystemId)
+			throws IOException {
+		PendingElement element = pending.removeFirst();
+		if (element.task != null) {
+			try {
+				element.task.join();
+			} catch (UncheckedIOException uioe) {
+				throw uioe.getCause();
+			}
+			mapping.getStatistics().merge(element.statistics);
+		} else if (element.markup == null) {
+			serialize(element, systemIds, currentSystemId, mapping.getStatistics());
+		}
+
+		serializer.writeCharacters(element.leadingText);
+		serializer.writeMarkup(element.markup);
+	}
+
+	/**
+	 * Method filters the collected element and serializes it to it's markup.
+	 */
+	private void serialize(PendingElement element, SystemIdResolver systemIds, String currentSystemId,
+						   FilterStatistics statistics) {
+		StringWriter markup = new StringWriter();
+		try {
+			filterDocument(element.document, new XmlSerializer(markup), systemIds, currentSystemId, statistics);
+		} catch (IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		}
+		element.markup = markup.toString();
+	}
+
+	/**
+	 * Task of filtration and serialization of persons from <code>from</code> (inclusive) to <code>to</code>
+	 * (exclusive) index of collected elements. Persons have their own documents, so tasks don't share any DOM nodes.
+	 * Each task has it's own statistics, subtasks' statistics are merged into it, when they are joined.
+	 */
+	private final class BatchTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final FilterStatistics statistics = new FilterStatistics();
+		private final PendingElement[] batch;
+		private final SystemIdResolver systemIds;
+		private final String currentSystemId;
+		private final int from;
+		private final int to;
+
+		private BatchTask(PendingElement[] batch, SystemIdResolver systemIds, String currentSystemId, int from, int to) {
+			this.batch = batch;
+			this.systemIds = systemIds;
+			this.currentSystemId = currentSystemId;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > threshold) {
+				int middle = (from + to) >>> 1;
+				BatchTask first = new BatchTask(batch, systemIds, currentSystemId, from, middle);
+				BatchTask second = new BatchTask(batch, systemIds, currentSystemId, middle, to);
+				invokeAll(first, second);
+				statistics.merge(first.statistics);
+				statistics.merge(second.statistics);
+				return;
+			}
+
+			for (int i = from; i < to; i++) {
+				PendingElement person = batch[i];
+				if (person.task == null && person.markup == null) serialize(person, systemIds, currentSystemId, statistics);
+			}
+		}
+	}
+
+	/**
+	 * Method collects the current element (<code>E1PLOGI</code> or <code>IDOC</code>) to it's own {@link Document}.
+	 */
+	private Document readDocument(XMLStreamReader reader) throws XMLStreamException {
+		long start = System.nanoTime();
+		Document document = documentBuilder.newDocument();
+		document.appendChild(readElement(reader, document));
+		mapping.getStatistics().add(Stage.PARSE, start);
+		return document;
+	}
+
+	/**
+	 * Method filters infotypes of the collected person or IDoc and decides whether it's persons must be kept.
+	 * The element is written with the given serializer without dropped persons and infotypes.
+	 * Stages are timed in the given statistics, which belong to the calling thread.
+	 */
+	private void filterDocument(Document document, XmlSerializer serializer, SystemIdResolver systemIds,
+								String currentSystemId, FilterStatistics statistics) throws IOException {
+		long start = System.nanoTime();
+		HrmdDocumentIndex index = HrmdDocumentIndex.build(document);
+		statistics.add(Stage.PARSE, start);
+
+		start = System.nanoTime();
+		mapping.filterInfotypes(index, inftyToPass);
+		statistics.add(Stage.INFOTYPES, start);
+
+		start = System.nanoTime();
+		if (currentSystemId != null) mapping.filterPersons(index, systemIds, currentSystemId, statistics);
+		statistics.add(Stage.PERSONS, start);
+		statistics.countPersons(index);
+
+		// Dropped persons and dropped parts are skipped on writing
+		start = System.nanoTime();
+		serializer.writeNode(document.getDocumentElement(), index::isDropped);
+		statistics.add(Stage.SERIALIZE, start);
+	}
+
+	/**
+	 * Method collects the current <code>E1PITYP</code> element (which is not a part of a person) to DOM
+	 * and writes it to target message, if it's infotype must be passed through the mapping.
+	 */
+	private void processInfotype(XMLStreamReader reader, XmlSerializer serializer) throws XMLStreamException, IOException {
+		Document infotype = documentBuilder.newDocument();
+		infotype.appendChild(readElement(reader, infotype));
+
+		HrmdDocumentIndex index = HrmdDocumentIndex.build(infotype);
+		mapping.filterInfotypes(index, inftyToPass);
+
+		serializer.writeNode(infotype.getDocumentElement(), index::isDropped);
+	}
+
+	/**
+	 * Method reads the current element with all of it's descendants to the given {@link Document}.
+	 * Reader must be positioned on the <code>START_ELEMENT</code> event and is left on the matching
+	 * <code>END_ELEMENT</code> event.
+	 *
+	 * @return {@link Element} that is not appended to the document yet
+	 */
+	private Element readElement(XMLStreamReader reader, Document doc) throws XMLStreamException {
+		Element root = createElement(reader, doc);
+		Node current = root;
+
+		while (current != null) {
+			switch (reader.next()) {
+				case XMLStreamConstants.START_ELEMENT:
+					Element child = createElement(reader, doc);
+					current.appendChild(child);
+					current = child;
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					current = current == root ? null : current.getParentNode();
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.SPACE:
+					// Parser may report one text node in several chunks
+					Node last = current.getLastChild();
+					if (last != null && last.getNodeType() == Node.TEXT_NODE) {
+						((Text) last).appendData(reader.getText());
+					} else {
+						current.appendChild(doc.createTextNode(reader.getText()));
+					}
+					break;
+				case XMLStreamConstants.CDATA:
+					current.appendChild(doc.createCDATASection(reader.getText()));
+					break;
+				case XMLStreamConstants.COMMENT:
+					current.appendChild(doc.createComment(reader.getText()));
+					break;
+				case XMLStreamConstants.PROCESSING_INSTRUCTION:
+					current.appendChild(doc.createProcessingInstruction(reader.getPITarget(), reader.getPIData()));
+					break;
+				default:
+					break;
+			}
+		}
+
+		return root;
+	}
+
+	private Element createElement(XMLStreamReader reader, Document doc) {
+		Element element = doc.createElement(reader.getLocalName());
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			element.setAttribute(getAttributeName(reader, i), reader.getAttributeValue(i));
+		}
+		return element;
+	}
+
+	private void writeStartElement(XMLStreamReader reader, XmlSerializer serializer) throws IOException {
+		serializer.writeStartElement(reader.getLocalName());
+
+		int count = reader.getAttributeCount();
+		if (count == 0) return;
+
+		// Keep the same attributes order as DOM does
+		Integer[] order = new Integer[count];
+		String[] names = new String[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = i;
+			names[i] = getAttributeName(reader, i);
+		}
+		Arrays.sort(order, (first, second) -> XmlSerializer.ATTRIBUTE_ORDER.compare(names[first], names[second]));
+
+		for (int i : order) {
+			serializer.writeAttribute(names[i], reader.getAttributeValue(i));
+		}
+	}
+
+	/**
+	 * Reader is not namespace aware (as DOM parser in DOM mode), so prefix
+	 * and local name of an attribute must be joined back to the qualified name.
+	 */
+	private String getAttributeName(XMLStreamReader reader, int index) {
+		String prefix = reader.getAttributePrefix(index);
+		String localName = reader.getAttributeLocalName(index);
+		return prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName;
+	}
+
+}
@@ -0,0 +1,74 @@
+package ru.sap.po.mapping.hrmd.filter;
+
+import com.sap.aii.mapping.api.AbstractTrace;
+
+/**
+ * Trace of {@link HRMD_to_HRMD_filter}.
+ *
+ * In PI runtime it delegates to {@link AbstractTrace} of the mapping, see {@link #of(AbstractTrace)}.
+ * Outside of PI server (e.g. in benchmarks and batch tools) there's no mapping trace, so the mapping
+ * writes to the given implementation instead, for example to {@link #NONE}.
+ */
+public interface MappingTrace {
+
+	/**
+	 * Trace that discards all messages.
+	 */
+	MappingTrace NONE = new MappingTrace() {
+		@Override
+		public void addInfo(String message) {
+		}
+
+		@Override
+		public void addWarning(String message) {
+		}
+
+		@Override
+		public void addWarning(String message, Throwable cause) {
+		}
+
+		@Override
+		public void addDebugMessage(String message) {
+		}
+	};
+
+	void addInfo(String message);
+
+	void addWarning(String message);
+
+	void addWarning(String message, Throwable cause);
+
+	void addDebugMessage(String message);
+
+	/**
+	 * Method wraps mapping trace of PI runtime.
+	 *
+	 * @param trace  trace of {@link com.sap.aii.mapping.api.AbstractTransformation}
+	 *
+	 * @return MappingTrace
+	 */
+	static MappingTrace of(AbstractTrace trace) {
+		return new MappingTrace() {
+			@Override
+			public void addInfo(String message) {
+				trace.addInfo(message);
+			}
+
+			@Override
+			public void addWarning(String message) {
+				trace.addWarning(message);
+			}
+
+			@Override
+			public void addWarning(String message, Throwable cause) {
+				trace.addWarning(message, cause);
+			}
+
+			@Override
+			public void addDebugMessage(String message) {
+				trace.addDebugMessage(message);
+			}
+		};
+	}
+
+}
@@ -0,0 +1,62 @@
+package ru.sap.po.mapping.hrmd.filter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+
+/**
+ * Head of incoming message, which is read to decide the processing mode of the message.
+ * The message is processed starting with it's head, the read bytes are not copied for that.
+ */
+final class MessageHead extends ByteArrayOutputStream {
+
+	private boolean complete;
+
+	MessageHead() {
+		super(8 * 1024);
+	}
+
+	/**
+	 * @return <code>true</code>, if the whole message is read
+	 */
+	boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Method reads the message, until the head has the given size or the message ends.
+	 *
+	 * @param is     source message
+	 * @param limit  size of the head in bytes
+	 */
+	void readFrom(InputStream is, int limit) throws IOException {
+		while (!complete && count < limit) {
+			if (count == buf.length) grow(limit);
+			int read = is.read(buf, count, Math.min(buf.length, limit) - count);
+			if (read < 0) {
+				complete = true;
+			} else {
+				count += read;
+			}
+		}
+	}
+
+	/**
+	 * @param rest  the rest of the message
+	 *
+	 * @return the whole message: the head followed by the rest, if the message isn't read completely
+	 */
+	InputStream toMessage(InputStream rest) {
+		InputStream head = new ByteArrayInputStream(buf, 0, count);
+		return complete ? head : new SequenceInputStream(head, rest);
+	}
+
+	private void grow(int limit) {
+		byte[] grown = new byte[(int) Math.min((long) buf.length * 2, limit)];
+		System.arraycopy(buf, 0, grown, 0, count);
+		buf = grown;
+	}
+
+}
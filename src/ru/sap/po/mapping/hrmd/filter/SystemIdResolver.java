@@ -0,0 +1,95 @@
+package ru.sap.po.mapping.hrmd.filter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import com.sap.aii.mapping.api.DynamicConfiguration;
+import com.sap.aii.mapping.api.DynamicConfigurationKey;
+
+/**
+ * Per-message cache of <code>BUKRS</code> &rarr; <code>SystemID</code> pairs from {@link DynamicConfiguration}
+ * or any other lookup function.
+ *
+ * One message contains only a few dozen distinct company codes but thousands of persons, so each company
+ * code is resolved in {@link DynamicConfiguration} only once. Company codes without <code>SystemID</code>
+ * are cached too. Instance must not be shared between messages, but may be used by several threads
+ * of one message: each company code is looked up only once.
+ */
+final class SystemIdResolver {
+
+	/**
+	 * Cached value for company codes without <code>SystemID</code> in {@link DynamicConfiguration}.
+	 */
+	private static final String NOT_FOUND = "";
+
+	private final Function<String, String> lookup;
+	private final Map<String, String> systemIds = new ConcurrentHashMap<>();
+
+	private final AtomicInteger resolutions = new AtomicInteger();
+	private final AtomicInteger misses = new AtomicInteger();
+
+	/**
+	 * @param lookup  function, which returns <code>SystemID</code> for the given company code
+	 *                or <code>null</code>, if there's no such company code
+	 */
+	SystemIdResolver(Function<String, String> lookup) {
+		this.lookup = lookup;
+	}
+
+	/**
+	 * Method creates resolver, which looks up <code>SystemID</code> in Dynamic Configuration key
+	 * <code>R&lt;BUKRS&gt;</code> with the given namespace.
+	 *
+	 * @param dc              {@link DynamicConfiguration} object of the current message
+	 * @param dcKeyNamespace  namespace of Dynamic Configuration keys with 'BUKRS'-'ReceiverSystem' pairs
+	 *
+	 * @return SystemIdResolver
+	 */
+	static SystemIdResolver forDynamicConfiguration(DynamicConfiguration dc, String dcKeyNamespace) {
+		return forKeyLookup((namespace, name) -> dc.get(DynamicConfigurationKey.create(namespace, name)), dcKeyNamespace);
+	}
+
+	/**
+	 * Method creates resolver, which looks up <code>SystemID</code> in key <code>R&lt;BUKRS&gt;</code>
+	 * with the given namespace of any Dynamic Configuration-like store.
+	 *
+	 * @param keyLookup       function, which returns value of a key by it's namespace and name
+	 * @param dcKeyNamespace  namespace of keys with 'BUKRS'-'ReceiverSystem' pairs
+	 *
+	 * @return SystemIdResolver
+	 */
+	static SystemIdResolver forKeyLookup(BiFunction<String, String, String> keyLookup, String dcKeyNamespace) {
+		return new SystemIdResolver(companyCode -> keyLookup.apply(dcKeyNamespace, "R" + companyCode));
+	}
+
+	/**
+	 * Method returns <code>SystemID</code> appropriate to the given company code.
+	 *
+	 * @param companyCode  value of <code>BUKRS</code> element
+	 *
+	 * @return SystemID or empty string, if there's no such company code
+	 */
+	String resolve(String companyCode) {
+		resolutions.incrementAndGet();
+		String systemId = systemIds.get(companyCode);
+		if (systemId != null) return systemId;
+
+		return systemIds.computeIfAbsent(companyCode, code -> {
+			misses.incrementAndGet();
+			String found = lookup.apply(code);
+			return found == null ? NOT_FOUND : found;
+		});
+	}
+
+	/**
+	 * @return one line summary of cache usage for the mapping trace
+	 */
+	String getSummary() {
+		return "BUKRS to SystemID resolution: " + systemIds.size() + " company codes, "
+				+ (resolutions.get() - misses.get()) + " cache hits, " + misses.get() + " cache misses.";
+	}
+
+}
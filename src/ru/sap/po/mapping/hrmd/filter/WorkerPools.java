@@ -0,0 +1,44 @@
+package ru.sap.po.mapping.hrmd.filter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dedicated {@link ForkJoinPool}s of parallel processing in <tt>stax</tt> mode, see {@link HrmdStreamingFilter}.
+ *
+ * Persons and IDocs are not processed on <code>ForkJoinPool.commonPool()</code>, which is shared with
+ * the whole application server, but on a pool of the configured size. One pool is created for each size
+ * and is shared by all mapping threads, so the number of worker threads doesn't grow with the number of messages.
+ * Workers are daemon threads and terminate, when the pool stays idle.
+ */
+final class WorkerPools {
+
+	private static final Map<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+	private static final AtomicInteger WORKER_NUMBER = new AtomicInteger();
+
+	private WorkerPools() {
+	}
+
+	/**
+	 * @param parallelism  number of worker threads, number of available processors is used, if it is less than 1
+	 *
+	 * @return pool with the given number of worker threads
+	 */
+	static ForkJoinPool get(int parallelism) {
+		int size = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+		return POOLS.computeIfAbsent(size, WorkerPools::create);
+	}
+
+	private static ForkJoinPool create(int parallelism) {
+		return new ForkJoinPool(parallelism, pool -> {
+			ForkJoinWorkerThread worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			worker.setName("hrmd-filter-worker-" + WORKER_NUMBER.incrementAndGet());
+			worker.setDaemon(true);
+			return worker;
+		}, null, false);
+	}
+
+}
@@ -0,0 +1,63 @@
+package ru.sap.po.mapping.hrmd.filter;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+
+/**
+ * Thread-confined cache of configured JAXP objects.
+ *
+ * Lookup of <code>DocumentBuilderFactory.newInstance()</code> and other factories walks system properties
+ * and <code>ServiceLoader</code> on each call, which is noticeable for thousands of small messages.
+ * JAXP builders and factories are not thread-safe, so each mapping thread gets it's own instances,
+ * which are reset before every use. Cached values are JDK classes only, so they don't hold
+ * the mapping class loader after redeployment.
+ */
+final class XmlFactories {
+
+	/**
+	 * JDK specific property to get CDATA sections as separate events, like DOM keeps them.
+	 */
+	private static final String REPORT_CDATA_EVENT = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+	private static final ThreadLocal<DocumentBuilder> DOCUMENT_BUILDER = new ThreadLocal<>();
+	private static final ThreadLocal<XMLInputFactory> INPUT_FACTORY = new ThreadLocal<>();
+
+	private XmlFactories() {
+	}
+
+	/**
+	 * Method returns {@link DocumentBuilder} of the current thread, reset to it's initial state.
+	 *
+	 * @return DocumentBuilder
+	 */
+	static DocumentBuilder documentBuilder() throws ParserConfigurationException {
+		DocumentBuilder builder = DOCUMENT_BUILDER.get();
+		if (builder == null) {
+			builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+			DOCUMENT_BUILDER.set(builder);
+		} else {
+			builder.reset();
+		}
+		return builder;
+	}
+
+	/**
+	 * Method returns {@link XMLInputFactory} of the current thread, configured to report the same
+	 * content as DOM parser does: not namespace aware and with separate CDATA events.
+	 *
+	 * @return XMLInputFactory
+	 */
+	static XMLInputFactory inputFactory() {
+		XMLInputFactory factory = INPUT_FACTORY.get();
+		if (factory == null) {
+			factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+			if (factory.isPropertySupported(REPORT_CDATA_EVENT)) factory.setProperty(REPORT_CDATA_EVENT, true);
+			INPUT_FACTORY.set(factory);
+		}
+		return factory;
+	}
+
+}
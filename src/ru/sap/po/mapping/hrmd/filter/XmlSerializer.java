@@ -0,0 +1,270 @@
+package ru.sap.po.mapping.hrmd.filter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Comparator;
+import java.util.function.Predicate;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.ProcessingInstruction;
+
+/**
+ * Minimal XML serializer that writes XML events and DOM nodes to a {@link Writer}.
+ *
+ * The produced markup is byte-equivalent to the output of the JDK identity
+ * {@link javax.xml.transform.Transformer} for a DOM {@link Document}: the same XML declaration,
+ * attribute order, empty element tags and escaping rules. That's why it is used instead of
+ * {@link javax.xml.stream.XMLStreamWriter}, which escapes carriage returns, attribute whitespace
+ * and supplementary characters differently.
+ */
+final class XmlSerializer {
+
+	/**
+	 * XML declaration written by the identity transformer for a DOM {@link Document}.
+	 */
+	private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>";
+
+	/**
+	 * Attribute order of the identity transformer: namespace declarations go first,
+	 * then all the other attributes, both sorted by qualified name.
+	 */
+	static final Comparator<String> ATTRIBUTE_ORDER = (first, second) -> {
+		boolean firstIsNs = isNamespaceDeclaration(first);
+		boolean secondIsNs = isNamespaceDeclaration(second);
+		if (firstIsNs != secondIsNs) return firstIsNs ? -1 : 1;
+		return first.compareTo(second);
+	};
+
+	private final Writer writer;
+
+	/**
+	 * Flag is <code>true</code> while the last start tag is not closed yet -
+	 * the element may still turn out to be empty and must be written as <code>&lt;tag/&gt;</code>.
+	 */
+	private boolean startTagOpen;
+
+	/**
+	 * Characters of DOM strings are copied to this reusable buffer, so no char array is allocated per text node.
+	 */
+	private char[] buffer = new char[256];
+
+	XmlSerializer(Writer writer) {
+		this.writer = writer;
+	}
+
+	void writeDeclaration() throws IOException {
+		writer.write(XML_DECLARATION);
+	}
+
+	void writeStartElement(String name) throws IOException {
+		closeStartTag();
+		writer.write('<');
+		writer.write(name);
+		startTagOpen = true;
+	}
+
+	/**
+	 * Writes attribute of the last started element. Attributes must be passed in {@link #ATTRIBUTE_ORDER}.
+	 */
+	void writeAttribute(String name, String value) throws IOException {
+		writer.write(' ');
+		writer.write(name);
+		writer.write("=\"");
+		writeEscaped(value, true);
+		writer.write('"');
+	}
+
+	void writeEndElement(String name) throws IOException {
+		if (startTagOpen) {
+			writer.write("/>");
+			startTagOpen = false;
+			return;
+		}
+		writer.write("</");
+		writer.write(name);
+		writer.write('>');
+	}
+
+	void writeCharacters(char[] text, int start, int length) throws IOException {
+		if (length == 0) return;
+		closeStartTag();
+		writeEscaped(text, start, length, false);
+	}
+
+	void writeCharacters(String text) throws IOException {
+		if (text.isEmpty()) return;
+		closeStartTag();
+		writeEscaped(text, false);
+	}
+
+	void writeCData(String data) throws IOException {
+		closeStartTag();
+		writer.write("<![CDATA[");
+		writer.write(data);
+		writer.write("]]>");
+	}
+
+	void writeComment(String data) throws IOException {
+		closeStartTag();
+		writer.write("<!--");
+		writer.write(data);
+		writer.write("-->");
+	}
+
+	void writeProcessingInstruction(String target, String data) throws IOException {
+		closeStartTag();
+		writer.write("<?");
+		writer.write(target);
+		if (data != null && !data.isEmpty()) {
+			writer.write(' ');
+			writer.write(data);
+		}
+		writer.write("?>");
+	}
+
+	/**
+	 * Writes markup, which is already serialized by another instance (e.g. an element serialized
+	 * in another thread). Empty markup doesn't close the last start tag, as a skipped element doesn't.
+	 *
+	 * @param markup  serialized element
+	 */
+	void writeMarkup(String markup) throws IOException {
+		if (markup.isEmpty()) return;
+		closeStartTag();
+		writer.write(markup);
+	}
+
+	/**
+	 * Writes given DOM {@link Node} with all of it's descendants.
+	 *
+	 * @param node  node to serialize
+	 */
+	void writeNode(Node node) throws IOException {
+		writeNode(node, null);
+	}
+
+	/**
+	 * Writes given DOM {@link Node} with all of it's descendants, except the elements accepted by
+	 * <code>skip</code> predicate - such elements are not written together with their subtrees.
+	 *
+	 * @param node  node to serialize
+	 * @param skip  predicate of elements to skip or <code>null</code> to write all of them
+	 */
+	void writeNode(Node node, Predicate<Node> skip) throws IOException {
+		switch (node.getNodeType()) {
+			case Node.DOCUMENT_NODE:
+				writeDeclaration();
+				writeChildren(node, skip);
+				break;
+			case Node.ELEMENT_NODE:
+				if (skip != null && skip.test(node)) break;
+				writeStartElement(node.getNodeName());
+				writeAttributes(node.getAttributes());
+				writeChildren(node, skip);
+				writeEndElement(node.getNodeName());
+				break;
+			case Node.TEXT_NODE:
+				writeCharacters(node.getNodeValue());
+				break;
+			case Node.CDATA_SECTION_NODE:
+				writeCData(node.getNodeValue());
+				break;
+			case Node.COMMENT_NODE:
+				writeComment(node.getNodeValue());
+				break;
+			case Node.PROCESSING_INSTRUCTION_NODE:
+				ProcessingInstruction pi = (ProcessingInstruction) node;
+				writeProcessingInstruction(pi.getTarget(), pi.getData());
+				break;
+			case Node.ENTITY_REFERENCE_NODE:
+				writeChildren(node, skip);
+				break;
+			default:
+				// Document type and other nodes are not written by the identity transformer
+				break;
+		}
+	}
+
+	void flush() throws IOException {
+		writer.flush();
+	}
+
+	private void writeChildren(Node node, Predicate<Node> skip) throws IOException {
+		for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+			writeNode(child, skip);
+		}
+	}
+
+	/**
+	 * DOM keeps attributes sorted by name, so only namespace declarations must be moved to the front.
+	 */
+	private void writeAttributes(NamedNodeMap attributes) throws IOException {
+		if (attributes == null) return;
+		for (int i = 0; i < attributes.getLength(); i++) {
+			Attr attr = (Attr) attributes.item(i);
+			if (isNamespaceDeclaration(attr.getName())) writeAttribute(attr.getName(), attr.getValue());
+		}
+		for (int i = 0; i < attributes.getLength(); i++) {
+			Attr attr = (Attr) attributes.item(i);
+			if (!isNamespaceDeclaration(attr.getName())) writeAttribute(attr.getName(), attr.getValue());
+		}
+	}
+
+	private void closeStartTag() throws IOException {
+		if (startTagOpen) {
+			writer.write('>');
+			startTagOpen = false;
+		}
+	}
+
+	private void writeEscaped(String text, boolean attribute) throws IOException {
+		int length = text.length();
+		if (buffer.length < length) buffer = new char[Math.max(length, buffer.length * 2)];
+		text.getChars(0, length, buffer, 0);
+		writeEscaped(buffer, 0, length, attribute);
+	}
+
+	/**
+	 * Writes characters with the escaping rules of the identity transformer.
+	 * Unescaped runs of characters are written in one call.
+	 */
+	private void writeEscaped(char[] text, int start, int length, boolean attribute) throws IOException {
+		int end = start + length;
+		int runStart = start;
+		for (int i = start; i < end; i++) {
+			char c = text[i];
+			String replacement = null;
+			int skip = 0;
+			switch (c) {
+				case '&': replacement = "&amp;"; break;
+				case '<': replacement = "&lt;"; break;
+				case '>': replacement = "&gt;"; break;
+				case '\r': replacement = "&#13;"; break;
+				case '"': if (attribute) replacement = "&quot;"; break;
+				case '\n': if (attribute) replacement = "&#10;"; break;
+				case '\t': if (attribute) replacement = "&#9;"; break;
+				default:
+					if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text[i + 1])) {
+						replacement = "&#" + Character.toCodePoint(c, text[i + 1]) + ";";
+						skip = 1;
+					} else if (!attribute && c >= 0x7F && c <= 0x9F) {
+						replacement = "&#" + (int) c + ";";
+					}
+			}
+			if (replacement == null) continue;
+			writer.write(text, runStart, i - runStart);
+			writer.write(replacement);
+			i += skip;
+			runStart = i + 1;
+		}
+		writer.write(text, runStart, end - runStart);
+	}
+
+	private static boolean isNamespaceDeclaration(String name) {
+		return name.equals("xmlns") || name.startsWith("xmlns:");
+	}
+
+}
@@ -0,0 +1,231 @@
+package ru.sap.po.mapping.hrmd.filter.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Immutable snapshot of mapping configuration, published by {@link FilterPropertiesHandler}.
+ *
+ * A message must take one snapshot and read all of it's settings from it, so a reload in the middle
+ * of the message doesn't mix old and new values.
+ *
+ * All values are prepared, when the snapshot is created: properties are copied to a plain map, list properties
+ * are split to unmodifiable lists and the sets of passed infotypes are compiled. So reading the snapshot
+ * takes no locks and allocates nothing, whatever number of mapping threads reads it.
+ *
+ * Passed infotypes may be set for a single receiver system with <tt>receiver.&lt;SystemID&gt;.employee.infotypes</tt>
+ * and <tt>receiver.&lt;SystemID&gt;.management.infotypes</tt> properties. A receiver with only one of them
+ * takes the other list from the global property. Profiles of all receivers are compiled to one table,
+ * so the message looks up it's set once by <tt>ReceiverService</tt>.
+ *
+ * Fields removed from segments of kept persons are set by segment type with
+ * <tt>segment.&lt;segment type&gt;.remove.fields</tt> properties and are compiled to {@link SegmentFieldMask}s.
+ */
+public final class FilterConfig {
+
+    public static final String EMPLOYEE_INFOTYPES = "employee.infotypes";
+    public static final String MANAGEMENT_INFOTYPES = "management.infotypes";
+
+    private static final String RECEIVER_PREFIX = "receiver.";
+    private static final String SEGMENT_PREFIX = "segment.";
+    private static final String REMOVE_FIELDS_SUFFIX = "remove.fields";
+    private static final String SEGMENT_E1P = "E1P";
+    private static final String SEGMENT_E1Q = "E1Q";
+    private static final char LIST_SEPARATOR = ',';
+
+    private final Map<String, String> values;
+    private final Map<String, List<String>> lists;
+    private final InfotypeSet passedInfotypes;
+    private final Map<String, InfotypeSet> receiverInfotypes;
+    private final Map<String, SegmentFieldMask> fieldMasks;
+    private final long version;
+    private final String source;
+
+    /**
+     * @param properties  loaded properties, are copied to the snapshot
+     * @param version     sequence number of the snapshot, starting with 1
+     * @param source      description of loaded files for the mapping trace
+     */
+    FilterConfig(Properties properties, long version, String source) {
+        Map<String, String> values = new HashMap<>();
+        Map<String, List<String>> lists = new HashMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            String value = properties.getProperty(key);
+            values.put(key, value);
+            lists.put(key, splitList(value));
+        }
+        this.values = values;
+        this.lists = lists;
+        this.passedInfotypes = compileInfotypeSet(EMPLOYEE_INFOTYPES, MANAGEMENT_INFOTYPES);
+        this.receiverInfotypes = compileReceiverInfotypeSets();
+        this.fieldMasks = compileFieldMasks();
+        this.version = version;
+        this.source = source;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getPropertyValue(String key) {
+        return values.get(key);
+    }
+
+    /**
+     * @param key  key of comma separated list property
+     *
+     * @return unmodifiable list of values or <code>null</code>, if property is not found
+     */
+    public List<String> getListPropertyValue(String key) {
+        return lists.get(key);
+    }
+
+    /**
+     * Returns set of all infotypes which must be passed through the mapping -
+     * both {@link #EMPLOYEE_INFOTYPES} and {@link #MANAGEMENT_INFOTYPES}.
+     *
+     * @return InfotypeSet or <code>null</code>, if any of properties is not found
+     */
+    public InfotypeSet getPassedInfotypes() {
+        return passedInfotypes;
+    }
+
+    /**
+     * Returns set of all infotypes which must be passed to the given receiver system - it's own profile,
+     * if there is one, or {@link #getPassedInfotypes()} otherwise.
+     *
+     * @param receiver  <tt>ReceiverService</tt> of the message, may be <code>null</code>
+     *
+     * @return InfotypeSet or <code>null</code>, if global properties are not found and there is no profile
+     */
+    public InfotypeSet getPassedInfotypes(String receiver) {
+        InfotypeSet profile = receiver == null ? null : receiverInfotypes.get(receiver);
+        return profile != null ? profile : passedInfotypes;
+    }
+
+    /**
+     * Returns mask of fields to remove from the segment. Masks of <code>E1Qnnnn</code> segments are available
+     * only through {@link SegmentFieldMask#getNested()} of the enclosing <code>E1Pnnnn</code> segment's mask.
+     *
+     * @param segment  segment type, e.g. "E1P0002"
+     *
+     * @return SegmentFieldMask or <code>null</code>, if no fields are removed from the segment
+     */
+    public SegmentFieldMask getFieldMask(String segment) {
+        return fieldMasks.get(segment);
+    }
+
+    private InfotypeSet compileInfotypeSet(String... keys) {
+        List<String> codes = new ArrayList<>();
+        for (String key : keys) {
+            List<String> values = getListPropertyValue(key);
+            if (values == null) return null;
+            codes.addAll(values);
+        }
+        return InfotypeSet.compile(codes);
+    }
+
+    /**
+     * Method compiles infotype profile of each receiver system, which has at least one own infotypes property.
+     *
+     * @return unmodifiable map of InfotypeSet by receiver system
+     */
+    private Map<String, InfotypeSet> compileReceiverInfotypeSets() {
+        Map<String, InfotypeSet> profiles = new HashMap<>();
+        for (String key : values.keySet()) {
+            String receiver = getReceiver(key, EMPLOYEE_INFOTYPES);
+            if (receiver == null) receiver = getReceiver(key, MANAGEMENT_INFOTYPES);
+            if (receiver == null || profiles.containsKey(receiver)) continue;
+
+            List<String> codes = new ArrayList<>();
+            for (String infotypesKey : new String[] {EMPLOYEE_INFOTYPES, MANAGEMENT_INFOTYPES}) {
+                List<String> receiverCodes = getListPropertyValue(RECEIVER_PREFIX + receiver + "." + infotypesKey);
+                if (receiverCodes == null) receiverCodes = getListPropertyValue(infotypesKey);
+                if (receiverCodes != null) codes.addAll(receiverCodes);
+            }
+            profiles.put(receiver, InfotypeSet.compile(codes));
+        }
+        return Collections.unmodifiableMap(profiles);
+    }
+
+    /**
+     * Method compiles field masks of all segment types with <tt>segment.&lt;segment type&gt;.remove.fields</tt>
+     * property. Mask of <code>E1Qnnnn</code> segment is nested into the mask of <code>E1Pnnnn</code> segment,
+     * which is created without own fields, if necessary.
+     *
+     * @return unmodifiable map of SegmentFieldMask by segment type
+     */
+    private Map<String, SegmentFieldMask> compileFieldMasks() {
+        Map<String, List<String>> fieldsBySegment = new HashMap<>();
+        for (String key : lists.keySet()) {
+            String segment = getKeyPart(key, SEGMENT_PREFIX, REMOVE_FIELDS_SUFFIX);
+            if (segment != null) fieldsBySegment.put(segment, lists.get(key));
+        }
+
+        Map<String, SegmentFieldMask> masks = new HashMap<>();
+        for (String segment : fieldsBySegment.keySet()) {
+            String enclosing = segment.startsWith(SEGMENT_E1Q) ? SEGMENT_E1P + segment.substring(SEGMENT_E1Q.length()) : segment;
+            if (masks.containsKey(enclosing)) continue;
+
+            List<String> nestedFields = enclosing.startsWith(SEGMENT_E1P)
+                    ? fieldsBySegment.get(SEGMENT_E1Q + enclosing.substring(SEGMENT_E1P.length())) : null;
+            SegmentFieldMask nested = nestedFields == null ? null
+                    : new SegmentFieldMask(SEGMENT_E1Q + enclosing.substring(SEGMENT_E1P.length()), nestedFields, null);
+            masks.put(enclosing, new SegmentFieldMask(enclosing,
+                    fieldsBySegment.getOrDefault(enclosing, Collections.<String>emptyList()), nested));
+        }
+        return Collections.unmodifiableMap(masks);
+    }
+
+    /**
+     * @return receiver system of <tt>receiver.&lt;SystemID&gt;.&lt;suffix&gt;</tt> key or <code>null</code>
+     */
+    private static String getReceiver(String key, String suffix) {
+        return getKeyPart(key, RECEIVER_PREFIX, suffix);
+    }
+
+    /**
+     * @return middle part of <tt>&lt;prefix&gt;&lt;part&gt;.&lt;suffix&gt;</tt> key or <code>null</code>
+     */
+    private static String getKeyPart(String key, String prefix, String suffix) {
+        int end = key.length() - suffix.length() - 1;
+        if (end <= prefix.length() || !key.startsWith(prefix) || !key.endsWith(suffix)
+                || key.charAt(end) != '.') return null;
+        return key.substring(prefix.length(), end);
+    }
+
+    /**
+     * Splits comma separated value the same way as <code>value.split(",")</code> does - trailing empty values
+     * are removed - but without regular expression.
+     *
+     * @return unmodifiable list of values
+     */
+    private static List<String> splitList(String value) {
+        List<String> list = new ArrayList<>();
+        int start = 0;
+        for (int end = value.indexOf(LIST_SEPARATOR); end >= 0; end = value.indexOf(LIST_SEPARATOR, start)) {
+            list.add(value.substring(start, end));
+            start = end + 1;
+        }
+        if (start == 0) return Collections.singletonList(value);
+        list.add(value.substring(start));
+
+        int size = list.size();
+        while (size > 0 && list.get(size - 1).isEmpty()) size--;
+        return Collections.unmodifiableList(new ArrayList<>(list.subList(0, size)));
+    }
+
+    @Override
+    public String toString() {
+        return "version " + version + " from " + source;
+    }
+
+}
@@ -1,28 +1,151 @@
 package ru.sap.po.mapping.hrmd.filter.config;
 
-import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 
+/**
+ * Holder of mapping configuration. Configuration is published as an immutable {@link FilterConfig} snapshot
+ * through a volatile reference, so reading it never blocks.
+ *
+ * <code>filter.properties</code> from mapping resources may point to an external file with <tt>config.file</tt>
+ * property. Properties of the external file override the ones from resources and are re-read, when modification
+ * time of the file changes. The file is checked at most every <tt>config.reload.interval</tt> seconds by the mapping
+ * thread, which gets the configuration first after the interval: only this thread checks the file, the others
+ * read the current snapshot meanwhile. No own thread is started, so nothing keeps the mapping class loader
+ * after redeployment. If the external file can't be read, the current snapshot stays in use.
+ *
+ * <tt>config.file</tt> and <tt>config.reload.interval</tt> are read only from <code>filter.properties</code>
+ * of mapping resources, once - setting them in the external file has no effect.
+ *
+ * Getting the snapshot is a volatile read, when the file isn't due to be checked.
+ */
 public class FilterPropertiesHandler {
 
     private static final String PROPERTIES_FILENAME = "filter.properties";
+    private static final long DEFAULT_RELOAD_INTERVAL_SECONDS = 60;
+    private static final long MIN_RELOAD_INTERVAL_SECONDS = 1;
+    private static final long CHECKING = Long.MIN_VALUE;
 
-    private static FilterPropertiesHandler instance;
-    private Properties properties;
+    /**
+     * Properties from mapping resources, are never modified.
+     */
+    private final Properties classpathProperties;
+    private final Path externalFile;
+    private final long reloadIntervalNanos;
+
+    private volatile FilterConfig config;
+
+    /**
+     * {@link System#nanoTime()} of the next check of the external file or {@link #CHECKING}, while it is checked.
+     */
+    private final AtomicLong nextCheck = new AtomicLong();
+
+    /**
+     * Modification time of the loaded external file, is used by the checking thread only.
+     */
+    private FileTime externalFileTime;
 
     private FilterPropertiesHandler() {
-        properties = loadPropertiesFromClasspath();
+        classpathProperties = loadPropertiesFromClasspath();
+
+        String file = classpathProperties == null ? null : classpathProperties.getProperty("config.file");
+        externalFile = file == null || file.trim().isEmpty() ? null : Paths.get(file.trim());
+        reloadIntervalNanos = TimeUnit.SECONDS.toNanos(
+                Math.max(MIN_RELOAD_INTERVAL_SECONDS, getReloadIntervalSeconds()));
+
+        config = new FilterConfig(classpathProperties == null ? new Properties() : classpathProperties, 1,
+                classpathProperties == null ? "no " + PROPERTIES_FILENAME : PROPERTIES_FILENAME);
+        if (externalFile != null) {
+            reload();
+            nextCheck.set(System.nanoTime() + reloadIntervalNanos);
+        }
+    }
+
+    /**
+     * Instance is created by class loader on the first call of {@link #getInstance()},
+     * which makes the call itself lock-free.
+     */
+    private static final class Holder {
+        private static final FilterPropertiesHandler INSTANCE = new FilterPropertiesHandler();
+    }
+
+    public static FilterPropertiesHandler getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Returns the current configuration snapshot. If the external file is due to be checked, the calling thread
+     * checks it first and gets the new snapshot, if the file has changed.
+     *
+     * @return FilterConfig
+     */
+    public FilterConfig getConfig() {
+        if (externalFile != null) checkExternalFile();
+        return config;
+    }
+
+    public String getPropertyValue(String key) {
+        return getConfig().getPropertyValue(key);
+    }
+
+    public List<String> getListPropertyValue(String key) {
+        return getConfig().getListPropertyValue(key);
+    }
+
+    /**
+     * Method checks the external file, if <tt>config.reload.interval</tt> has passed since the last check.
+     * Only the thread, which has switched {@link #nextCheck} to {@link #CHECKING}, checks the file,
+     * the next check is scheduled after it, so checks never overlap.
+     */
+    private void checkExternalFile() {
+        long next = nextCheck.get();
+        if (next == CHECKING || System.nanoTime() - next < 0 || !nextCheck.compareAndSet(next, CHECKING)) return;
+        try {
+            reload();
+        } finally {
+            nextCheck.set(System.nanoTime() + reloadIntervalNanos);
+        }
+    }
+
+    /**
+     * Method publishes a new snapshot, if modification time of the external file has changed.
+     * Is called by the constructor and then by the checking thread only.
+     */
+    private void reload() {
+        try {
+            FileTime modified = Files.getLastModifiedTime(externalFile);
+            if (modified.equals(externalFileTime)) return;
+
+            Properties properties = new Properties();
+            if (classpathProperties != null) properties.putAll(classpathProperties);
+            try (InputStream input = Files.newInputStream(externalFile)) {
+                properties.load(input);
+            }
+
+            externalFileTime = modified;
+            config = new FilterConfig(properties, config.getVersion() + 1,
+                    PROPERTIES_FILENAME + " and " + externalFile + " modified at " + modified);
+        } catch (IOException | RuntimeException ex) {
+            // The current snapshot stays in use until the file can be read, the message must not fail
+        }
     }
 
-    public static synchronized FilterPropertiesHandler getInstance() {
-        if (instance == null) {
-            instance = new FilterPropertiesHandler();
+    private long getReloadIntervalSeconds() {
+        String interval = classpathProperties == null ? null : classpathProperties.getProperty("config.reload.interval");
+        try {
+            return interval == null ? DEFAULT_RELOAD_INTERVAL_SECONDS : Math.max(0, Long.parseLong(interval.trim()));
+        } catch (NumberFormatException ex) {
+            return DEFAULT_RELOAD_INTERVAL_SECONDS;
         }
-        return instance;
     }
 
     private Properties loadPropertiesFromClasspath() {
@@ -35,19 +158,4 @@ public class FilterPropertiesHandler {
         }
     }
 
-    public String getPropertyValue(String key) {
-        if (properties != null) {
-            return properties.getProperty(key);
-        }
-        return null;
-    }
-
-    public List<String> getListPropertyValue(String key) {
-        String propertyValue = this.getPropertyValue(key);
-        if (propertyValue != null) {
-            return Arrays.asList(propertyValue.split(","));
-        }
-        return null;
-    }
-
 }
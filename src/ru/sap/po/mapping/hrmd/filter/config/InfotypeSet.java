@@ -0,0 +1,95 @@
+package ru.sap.po.mapping.hrmd.filter.config;
+
+import java.util.Collection;
+import java.util.StringJoiner;
+
+/**
+ * Immutable set of <tt>HRMD_A09</tt> infotype codes, compiled to a bitset of 10 000 bits
+ * indexed by the numeric <code>INFTY</code> code.
+ *
+ * Check of a code is O(1) and works straight on the characters, so it doesn't allocate anything.
+ * Only codes of exactly four digits are valid infotype codes - any other value is never contained in the set.
+ * String form of the set is built once with the set, so it can be traced for every message.
+ */
+public final class InfotypeSet {
+
+    private static final int CODE_LENGTH = 4;
+    private static final int CAPACITY = 10000;
+
+    private final long[] bits;
+    private final String text;
+
+    private InfotypeSet(long[] bits) {
+        this.bits = bits;
+        this.text = format(bits);
+    }
+
+    /**
+     * Compiles given infotype codes to the set. Invalid codes are ignored, because they can never match.
+     *
+     * @param codes  four-digit infotype codes, e.g. "0001"
+     *
+     * @return InfotypeSet
+     */
+    public static InfotypeSet compile(Collection<String> codes) {
+        long[] bits = new long[(CAPACITY + 63) / 64];
+        for (String code : codes) {
+            int value = parse(code);
+            if (value >= 0) bits[value >>> 6] |= 1L << value;
+        }
+        return new InfotypeSet(bits);
+    }
+
+    /**
+     * @param sets  sets to combine
+     *
+     * @return InfotypeSet with codes contained in any of given sets
+     */
+    public static InfotypeSet union(Collection<InfotypeSet> sets) {
+        long[] bits = new long[(CAPACITY + 63) / 64];
+        for (InfotypeSet set : sets) {
+            for (int i = 0; i < bits.length; i++) bits[i] |= set.bits[i];
+        }
+        return new InfotypeSet(bits);
+    }
+
+    public boolean contains(CharSequence code) {
+        return contains(parse(code));
+    }
+
+    private boolean contains(int value) {
+        return contains(bits, value);
+    }
+
+    private static boolean contains(long[] bits, int value) {
+        return value >= 0 && (bits[value >>> 6] & (1L << value)) != 0;
+    }
+
+    /**
+     * @return numeric value of four-digit code or -1, if the code is invalid
+     */
+    private static int parse(CharSequence code) {
+        if (code == null || code.length() != CODE_LENGTH) return -1;
+        int value = 0;
+        for (int i = 0; i < CODE_LENGTH; i++) {
+            int digit = code.charAt(i) - '0';
+            if (digit < 0 || digit > 9) return -1;
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static String format(long[] bits) {
+        StringJoiner joiner = new StringJoiner(", ", "[", "]");
+        for (int value = 0; value < CAPACITY; value++) {
+            if (contains(bits, value)) joiner.add(String.format("%04d", value));
+        }
+        return joiner.toString();
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+}
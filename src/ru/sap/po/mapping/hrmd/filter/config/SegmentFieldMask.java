@@ -0,0 +1,67 @@
+package ru.sap.po.mapping.hrmd.filter.config;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Immutable set of fields (child elements) to remove from one type of <tt>HRMD_A09</tt> segment,
+ * compiled from <tt>segment.&lt;segment type&gt;.remove.fields</tt> property.
+ *
+ * Mask of time-dependent <code>E1Pnnnn</code> segment also holds the mask of it's additional <code>E1Qnnnn</code>
+ * segments, so the whole segment is processed in one pass over it's children: each child is either a removed field,
+ * a nested segment or is left as is.
+ */
+public final class SegmentFieldMask {
+
+    private final String segment;
+    private final Set<String> fields;
+    private final SegmentFieldMask nested;
+
+    /**
+     * @param segment  segment type, e.g. "E1P0002"
+     * @param fields   names of fields to remove
+     * @param nested   mask of nested segments or <code>null</code>
+     */
+    SegmentFieldMask(String segment, Collection<String> fields, SegmentFieldMask nested) {
+        this.segment = segment;
+        this.fields = Collections.unmodifiableSet(new HashSet<>(fields));
+        this.nested = nested;
+    }
+
+    public String getSegment() {
+        return segment;
+    }
+
+    /**
+     * @param name  name of a child element of the segment
+     *
+     * @return <code>true</code>, if the child must be removed from the segment
+     */
+    public boolean removes(String name) {
+        return fields.contains(name);
+    }
+
+    /**
+     * @param name  name of a child element of the segment
+     *
+     * @return <code>true</code>, if the child is a nested segment with it's own mask
+     */
+    public boolean isNested(String name) {
+        return nested != null && nested.segment.equals(name);
+    }
+
+    /**
+     * @return mask of nested segments or <code>null</code>
+     */
+    public SegmentFieldMask getNested() {
+        return nested;
+    }
+
+    @Override
+    public String toString() {
+        return segment + fields + (nested == null ? "" : ", " + nested);
+    }
+
+}
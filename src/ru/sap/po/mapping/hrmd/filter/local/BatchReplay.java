@@ -0,0 +1,305 @@
+package ru.sap.po.mapping.hrmd.filter.local;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import ru.sap.po.mapping.hrmd.filter.HRMD_to_HRMD_filter;
+
+/**
+ * Command line tool, which replays archived HRMD_A09 messages through {@link HRMD_to_HRMD_filter} without PI,
+ * e.g. to re-distribute persons after a system refresh or for capacity planning.
+ *
+ * Each <tt>*.xml</tt> file of the input directory is filtered for the given receiver with the same logic
+ * as in PI runtime and written with the same name to the output directory. Receiver <tt>*</tt> writes a target
+ * message for every receiver of the mapping file to <tt>&lt;output dir&gt;/&lt;receiver&gt;</tt>, parsing each
+ * file only once. Files are processed concurrently, each file is read and written through it's own file channel.
+ * Size, processing time and number of trace warnings are reported for each file, warnings are printed below.
+ *
+ * Files are processed either on a pool of platform threads or each on it's own virtual thread (Java 21 or newer,
+ * platform threads are used on older JVMs) - a lot of small delta IDocs are dominated by file I/O, which doesn't
+ * hold a platform thread then. In both cases a semaphore limits the number of files processed at the same time.
+ * The mapping itself runs unchanged.
+ *
+ * Mapping file is a properties file with <tt>BUKRS=SystemID</tt> lines, it is the Dynamic Configuration
+ * filled on receiver determination step in PI.
+ *
+ * Run with <code>java -cp &lt;classes&gt;:&lt;resources&gt;:&lt;SAP mapping API&gt; ru.sap.po.mapping.hrmd.filter.local.BatchReplay
+ * &lt;input dir&gt; &lt;mapping file&gt; &lt;receiver|*&gt; &lt;output dir&gt; [threads] [platform|virtual]</code>.
+ * Number of threads (concurrently processed files) is the number of processors by default.
+ * Output directory must be outside of the input directory, so target messages are never replayed again
+ * and never overwrite source messages.
+ * Exit code is 2, if any file failed or has trace warnings.
+ */
+public final class BatchReplay {
+
+	private static final String ALL_RECEIVERS = "*";
+
+	private final LocalDynamicConfiguration dynamicConfiguration;
+	private final String receiver;
+	private final Path outputDir;
+
+	/**
+	 * Result of one replayed file.
+	 */
+	public static final class Result {
+		private final Path file;
+		private final long inputBytes;
+		private final long outputBytes;
+		private final long nanos;
+		private final List<String> warnings;
+
+		private Result(Path file, long inputBytes, long outputBytes, long nanos, List<String> warnings) {
+			this.file = file;
+			this.inputBytes = inputBytes;
+			this.outputBytes = outputBytes;
+			this.nanos = nanos;
+			this.warnings = warnings;
+		}
+
+		public Path getFile() {
+			return file;
+		}
+
+		public long getInputBytes() {
+			return inputBytes;
+		}
+
+		public long getOutputBytes() {
+			return outputBytes;
+		}
+
+		public long getNanos() {
+			return nanos;
+		}
+
+		/**
+		 * @return warnings of the mapping trace
+		 */
+		public List<String> getWarnings() {
+			return warnings;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "%-40s %14d %14d %12.1f %9d",
+					file.getFileName(), inputBytes, outputBytes, nanos / 1e6, warnings.size());
+		}
+	}
+
+	public BatchReplay(LocalDynamicConfiguration dynamicConfiguration, String receiver, Path outputDir) {
+		this.dynamicConfiguration = dynamicConfiguration;
+		this.receiver = receiver;
+		this.outputDir = outputDir;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 4) {
+			System.err.println("Usage: BatchReplay <input dir> <mapping file> <receiver|*> <output dir> [threads] [platform|virtual]");
+			System.exit(1);
+		}
+
+		Path inputDir = Paths.get(args[0]);
+		String receiver = args[2];
+		Path outputDir = Paths.get(args[3]);
+		if (isInside(outputDir, inputDir)) {
+			System.err.println("Output directory must not be the input directory or inside of it: " + outputDir);
+			System.exit(1);
+		}
+		int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+		boolean virtual = args.length > 5 && "virtual".equalsIgnoreCase(args[5]);
+
+		BatchReplay replay = new BatchReplay(loadMapping(Paths.get(args[1])), receiver, outputDir);
+		replay.createOutputDirectories();
+		List<Path> files = listFiles(inputDir);
+
+		System.out.println(String.format(Locale.ROOT, "%-40s %14s %14s %12s %9s", "file", "bytes in", "bytes out", "ms", "warnings"));
+
+		long start = System.nanoTime();
+		long inputBytes = 0;
+		boolean failed = false;
+
+		ExecutorService executor = virtual ? newVirtualThreadExecutor() : null;
+		if (virtual && executor == null) {
+			System.err.println("Virtual threads are not supported by this JVM, platform threads are used.");
+			virtual = false;
+		}
+		if (executor == null) executor = Executors.newFixedThreadPool(Math.max(1, threads));
+
+		try {
+			List<Future<Result>> results = replay.replay(files, executor, threads);
+
+			// Results are reported in order of files, as soon as the next one is ready
+			for (int i = 0; i < files.size(); i++) {
+				try {
+					Result result = results.get(i).get();
+					System.out.println(result);
+					for (String warning : result.warnings) System.out.println("    " + warning);
+					inputBytes += result.inputBytes;
+					failed |= !result.warnings.isEmpty();
+				} catch (ExecutionException ee) {
+					System.out.println(String.format(Locale.ROOT, "%-40s FAILED: %s", files.get(i).getFileName(), ee.getCause()));
+					failed = true;
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format(Locale.ROOT, "%d files, %d bytes in %.1f s with %d %s threads (%.1f MB/s)",
+				files.size(), inputBytes, seconds, threads, virtual ? "virtual" : "platform", inputBytes / 1048576.0 / seconds));
+
+		if (failed) System.exit(2);
+	}
+
+	/**
+	 * Method submits replay of each file to the executor. At most <code>concurrency</code> files are processed
+	 * at the same time, whatever number of threads the executor has.
+	 *
+	 * @param files        archived HRMD_A09 messages
+	 * @param executor     executor of replay tasks
+	 * @param concurrency  maximal number of files processed at the same time
+	 *
+	 * @return results in order of files
+	 */
+	public List<Future<Result>> replay(List<Path> files, ExecutorService executor, int concurrency) {
+		Semaphore permits = new Semaphore(Math.max(1, concurrency));
+		List<Future<Result>> results = new ArrayList<>(files.size());
+		for (Path file : files) {
+			results.add(executor.submit(() -> {
+				permits.acquire();
+				try {
+					return replay(file);
+				} finally {
+					permits.release();
+				}
+			}));
+		}
+		return results;
+	}
+
+	/**
+	 * Method creates executor, which starts a new virtual thread for each task. It is looked up by reflection,
+	 * as the mapping is compiled for Java 8.
+	 *
+	 * @return ExecutorService or <code>null</code>, if the JVM has no virtual threads (before Java 21)
+	 */
+	public static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Method filters one file for the receiver (or for all receivers) and writes target message(s) to output directory.
+	 *
+	 * @param file  archived HRMD_A09 message
+	 *
+	 * @return size, time and trace warnings of the file
+	 */
+	private Result replay(Path file) throws IOException {
+		long start = System.nanoTime();
+		LocalTransformation transformation = new LocalTransformation(LocalTrace.collecting());
+		Path name = file.getFileName();
+		long outputBytes = 0;
+
+		if (ALL_RECEIVERS.equals(receiver)) {
+			LocalTransformationInput input = LocalTransformationInput.ofFile(file, new LocalInputHeader(null), dynamicConfiguration);
+			Map<String, LocalTransformationOutput> outputs = transformation.fanOut(input,
+					target -> LocalTransformationOutput.toFile(outputDir.resolve(target).resolve(name)));
+			for (String target : outputs.keySet()) outputBytes += Files.size(outputDir.resolve(target).resolve(name));
+		} else {
+			LocalTransformationInput input = LocalTransformationInput.ofFile(file, new LocalInputHeader(receiver), dynamicConfiguration);
+			transformation.transform(input, LocalTransformationOutput.toFile(outputDir.resolve(name)));
+			outputBytes = Files.size(outputDir.resolve(name));
+		}
+
+		List<String> warnings = new ArrayList<>();
+		for (String message : transformation.getTrace().getMessages()) {
+			if (message.startsWith(LocalTrace.Level.WARNING.name())) warnings.add(message);
+		}
+
+		return new Result(file, Files.size(file), outputBytes, System.nanoTime() - start, warnings);
+	}
+
+	/**
+	 * Method compares real paths of directories, so links and relative paths point to the same directory.
+	 * Directory, which doesn't exist yet, is resolved against it's nearest existing parent.
+	 *
+	 * @return <code>true</code>, if the directory is the parent directory or is inside of it
+	 */
+	static boolean isInside(Path directory, Path parent) throws IOException {
+		return toRealPath(directory).startsWith(toRealPath(parent));
+	}
+
+	private static Path toRealPath(Path path) throws IOException {
+		Path absolute = path.toAbsolutePath().normalize();
+		Path existing = absolute;
+		while (existing != null && !Files.exists(existing)) existing = existing.getParent();
+		return existing == null ? absolute : existing.toRealPath().resolve(existing.relativize(absolute));
+	}
+
+	private void createOutputDirectories() throws IOException {
+		Files.createDirectories(outputDir);
+		if (!ALL_RECEIVERS.equals(receiver)) return;
+		for (String target : dynamicConfiguration.getValues(new HRMD_to_HRMD_filter().getDcKeyNamespace())) {
+			Files.createDirectories(outputDir.resolve(target));
+		}
+	}
+
+	/**
+	 * Method loads <tt>BUKRS=SystemID</tt> pairs to Dynamic Configuration keys <tt>R&lt;BUKRS&gt;</tt>.
+	 *
+	 * @param mappingFile  properties file with <tt>BUKRS=SystemID</tt> lines
+	 *
+	 * @return LocalDynamicConfiguration
+	 */
+	public static LocalDynamicConfiguration loadMapping(Path mappingFile) throws IOException {
+		Properties mapping = new Properties();
+		try (Reader reader = Files.newBufferedReader(mappingFile, StandardCharsets.UTF_8)) {
+			mapping.load(reader);
+		}
+
+		String namespace = new HRMD_to_HRMD_filter().getDcKeyNamespace();
+		LocalDynamicConfiguration dynamicConfiguration = new LocalDynamicConfiguration();
+		for (String companyCode : mapping.stringPropertyNames()) {
+			dynamicConfiguration.put(namespace, "R" + companyCode.trim(), mapping.getProperty(companyCode).trim());
+		}
+		return dynamicConfiguration;
+	}
+
+	/**
+	 * @return <tt>*.xml</tt> files of the directory sorted by name
+	 */
+	public static List<Path> listFiles(Path inputDir) throws IOException {
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(inputDir, "*.xml")) {
+			for (Path file : stream) {
+				if (Files.isRegularFile(file)) files.add(file);
+			}
+		}
+		Collections.sort(files);
+		return files;
+	}
+
+}
@@ -0,0 +1,54 @@
+package ru.sap.po.mapping.hrmd.filter.local;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+/**
+ * In-memory store of Dynamic Configuration keys for running the mapping outside of PI runtime.
+ * Keys are identified by namespace and name, as <code>DynamicConfigurationKey</code> is.
+ */
+public final class LocalDynamicConfiguration implements BiFunction<String, String, String> {
+
+	private final Map<String, String> values = new ConcurrentHashMap<>();
+
+	public LocalDynamicConfiguration put(String namespace, String name, String value) {
+		values.put(key(namespace, name), value);
+		return this;
+	}
+
+	/**
+	 * @return value of the key or <code>null</code>, if there's no such key
+	 */
+	public String get(String namespace, String name) {
+		return values.get(key(namespace, name));
+	}
+
+	/**
+	 * @return distinct values of all keys with the given namespace, e.g. all receiver systems of routing keys
+	 */
+	public Set<String> getValues(String namespace) {
+		String prefix = key(namespace, "");
+		Set<String> found = new TreeSet<>();
+		values.forEach((key, value) -> {
+			if (key.startsWith(prefix)) found.add(value);
+		});
+		return found;
+	}
+
+	public void remove(String namespace, String name) {
+		values.remove(key(namespace, name));
+	}
+
+	@Override
+	public String apply(String namespace, String name) {
+		return get(namespace, name);
+	}
+
+	private static String key(String namespace, String name) {
+		return namespace + '|' + name;
+	}
+
+}
@@ -0,0 +1,19 @@
+package ru.sap.po.mapping.hrmd.filter.local;
+
+/**
+ * Message header for running the mapping outside of PI runtime, holds the values
+ * of <code>InputHeader</code>, which are used by the mapping - only <tt>ReceiverService</tt>.
+ */
+public final class LocalInputHeader {
+
+	private final String receiverService;
+
+	public LocalInputHeader(String receiverService) {
+		this.receiverService = receiverService;
+	}
+
+	public String getReceiverService() {
+		return receiverService;
+	}
+
+}
@@ -0,0 +1,85 @@
+package ru.sap.po.mapping.hrmd.filter.local;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ru.sap.po.mapping.hrmd.filter.MappingTrace;
+
+/**
+ * Mapping trace for running the mapping outside of PI runtime. Messages are collected in memory
+ * and optionally printed to a stream, starting with the given level.
+ */
+public final class LocalTrace implements MappingTrace {
+
+	public enum Level { DEBUG, INFO, WARNING }
+
+	private final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+	private final PrintStream out;
+	private final Level printLevel;
+	private final AtomicInteger warnings = new AtomicInteger();
+
+	private LocalTrace(PrintStream out, Level printLevel) {
+		this.out = out;
+		this.printLevel = printLevel;
+	}
+
+	/**
+	 * @return trace, which only collects messages
+	 */
+	public static LocalTrace collecting() {
+		return new LocalTrace(null, Level.WARNING);
+	}
+
+	/**
+	 * @param printLevel  minimal level of messages to print to <code>System.err</code>
+	 *
+	 * @return trace, which collects messages and prints them to console
+	 */
+	public static LocalTrace console(Level printLevel) {
+		return new LocalTrace(System.err, printLevel);
+	}
+
+	@Override
+	public void addInfo(String message) {
+		add(Level.INFO, message, null);
+	}
+
+	@Override
+	public void addWarning(String message) {
+		add(Level.WARNING, message, null);
+	}
+
+	@Override
+	public void addWarning(String message, Throwable cause) {
+		add(Level.WARNING, message, cause);
+	}
+
+	@Override
+	public void addDebugMessage(String message) {
+		add(Level.DEBUG, message, null);
+	}
+
+	/**
+	 * @return all messages in order of appearance, prefixed with their level
+	 */
+	public List<String> getMessages() {
+		synchronized (messages) {
+			return new ArrayList<>(messages);
+		}
+	}
+
+	public int getWarningCount() {
+		return warnings.get();
+	}
+
+	private void add(Level level, String message, Throwable cause) {
+		String entry = cause == null ? level + ": " + message : level + ": " + message + cause;
+		messages.add(entry);
+		if (level == Level.WARNING) warnings.incrementAndGet();
+		if (out != null && level.compareTo(printLevel) >= 0) out.println(entry);
+	}
+
+}
@@ -0,0 +1,92 @@
+package ru.sap.po.mapping.hrmd.filter.local;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import ru.sap.po.mapping.hrmd.filter.HRMD_to_HRMD_filter;
+
+/**
+ * Runs {@link HRMD_to_HRMD_filter} on a plain JVM without PI server: the same filtration as in
+ * <code>transform</code>, but with local stand-ins of the mapping API.
+ *
+ * The stand-ins don't extend classes of <code>com.sap.aii.mapping.api</code>, so they don't depend on
+ * their abstract methods, which differ between PI releases. The mapping is called through
+ * {@link HRMD_to_HRMD_filter#filter(InputStream, OutputStream, String, java.util.function.BiFunction)}.
+ * <code>transform</code> itself is never called offline: it only takes payload streams, <tt>ReceiverService</tt>
+ * and Dynamic Configuration from the API objects and turns an <code>IOException</code> of <code>filter</code>
+ * into <code>StreamTransformationException</code>, which is done here by discarding the target message.
+ * The mapping class itself still extends <code>AbstractTransformation</code>, so the SAP mapping API library
+ * must be on the classpath, but no PI server is needed.
+ */
+public final class LocalTransformation {
+
+	private final LocalTrace trace;
+	private final HRMD_to_HRMD_filter mapping;
+
+	public LocalTransformation(LocalTrace trace) {
+		this.trace = trace;
+		this.mapping = new HRMD_to_HRMD_filter(trace);
+	}
+
+	public LocalTrace getTrace() {
+		return trace;
+	}
+
+	/**
+	 * Applies the mapping to the source message. If the mapping fails, target message is discarded
+	 * the same way as PI runtime does, so no partial message is left in the output.
+	 *
+	 * @param input   source message
+	 * @param output  target message
+	 */
+	public void transform(LocalTransformationInput input, LocalTransformationOutput output) throws IOException {
+		try {
+			try (InputStream is = input.getInputStream();
+				 OutputStream os = output.getOutputStream()) {
+				mapping.filter(is, os, input.getInputHeader().getReceiverService(), input.getDynamicConfiguration());
+			}
+		} catch (IOException | RuntimeException e) {
+			output.discard();
+			throw e;
+		}
+	}
+
+	/**
+	 * Applies the mapping to the source message once for all receiver systems found in it's Dynamic Configuration,
+	 * see {@link HRMD_to_HRMD_filter#filter(InputStream, Map, java.util.function.BiFunction)}.
+	 * Receiver service of the input header is ignored. If the mapping fails, all target messages are discarded.
+	 *
+	 * @param input    source message
+	 * @param outputs  function, which returns target message of the given receiver system
+	 *
+	 * @return target messages by receiver system
+	 */
+	public Map<String, LocalTransformationOutput> fanOut(LocalTransformationInput input,
+														 Function<String, LocalTransformationOutput> outputs) throws IOException {
+		Map<String, LocalTransformationOutput> targets = new LinkedHashMap<>();
+		for (String receiver : input.getDynamicConfiguration().getValues(mapping.getDcKeyNamespace())) {
+			targets.put(receiver, outputs.apply(receiver));
+		}
+
+		Map<String, OutputStream> streams = new LinkedHashMap<>();
+		try {
+			try (InputStream is = input.getInputStream()) {
+				for (Map.Entry<String, LocalTransformationOutput> target : targets.entrySet()) {
+					streams.put(target.getKey(), target.getValue().getOutputStream());
+				}
+				mapping.filter(is, streams, input.getDynamicConfiguration());
+			} finally {
+				for (OutputStream os : streams.values()) os.close();
+			}
+		} catch (IOException | RuntimeException e) {
+			for (LocalTransformationOutput output : targets.values()) output.discard();
+			throw e;
+		}
+		return targets;
+	}
+
+}
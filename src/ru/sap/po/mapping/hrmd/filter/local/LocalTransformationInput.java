@@ -0,0 +1,56 @@
+package ru.sap.po.mapping.hrmd.filter.local;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Source message with it's header and Dynamic Configuration for running the mapping outside of PI runtime.
+ * Payload is read either from a byte array or from a file.
+ */
+public final class LocalTransformationInput {
+
+	private final byte[] bytes;
+	private final Path file;
+	private final LocalInputHeader inputHeader;
+	private final LocalDynamicConfiguration dynamicConfiguration;
+
+	private LocalTransformationInput(byte[] bytes, Path file, LocalInputHeader inputHeader,
+									 LocalDynamicConfiguration dynamicConfiguration) {
+		this.bytes = bytes;
+		this.file = file;
+		this.inputHeader = inputHeader;
+		this.dynamicConfiguration = dynamicConfiguration;
+	}
+
+	public static LocalTransformationInput ofBytes(byte[] payload, LocalInputHeader inputHeader,
+												   LocalDynamicConfiguration dynamicConfiguration) {
+		return new LocalTransformationInput(payload, null, inputHeader, dynamicConfiguration);
+	}
+
+	public static LocalTransformationInput ofFile(Path payload, LocalInputHeader inputHeader,
+												  LocalDynamicConfiguration dynamicConfiguration) {
+		return new LocalTransformationInput(null, payload, inputHeader, dynamicConfiguration);
+	}
+
+	/**
+	 * @return new stream of the payload, which must be closed by the caller. File is read through a {@link FileChannel},
+	 * the stream may report no available bytes for it.
+	 */
+	public InputStream getInputStream() throws IOException {
+		return bytes != null ? new ByteArrayInputStream(bytes) : Channels.newInputStream(FileChannel.open(file, StandardOpenOption.READ));
+	}
+
+	public LocalInputHeader getInputHeader() {
+		return inputHeader;
+	}
+
+	public LocalDynamicConfiguration getDynamicConfiguration() {
+		return dynamicConfiguration;
+	}
+
+}
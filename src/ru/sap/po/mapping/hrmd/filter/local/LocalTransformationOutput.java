@@ -0,0 +1,65 @@
+package ru.sap.po.mapping.hrmd.filter.local;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Target message for running the mapping outside of PI runtime. Payload is written either
+ * to memory or to a file.
+ */
+public final class LocalTransformationOutput {
+
+	private final ByteArrayOutputStream bytes;
+	private final Path file;
+
+	private LocalTransformationOutput(ByteArrayOutputStream bytes, Path file) {
+		this.bytes = bytes;
+		this.file = file;
+	}
+
+	public static LocalTransformationOutput toMemory() {
+		return new LocalTransformationOutput(new ByteArrayOutputStream(), null);
+	}
+
+	public static LocalTransformationOutput toFile(Path payload) {
+		return new LocalTransformationOutput(null, payload);
+	}
+
+	/**
+	 * @return stream of the payload, which must be closed by the caller. In-memory payload is cleared,
+	 * file is truncated and written through a {@link FileChannel}.
+	 */
+	public OutputStream getOutputStream() throws IOException {
+		if (bytes == null) {
+			return Channels.newOutputStream(FileChannel.open(file, StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+		}
+		bytes.reset();
+		return bytes;
+	}
+
+	/**
+	 * Discards payload of a failed mapping: in-memory payload is cleared, file is deleted.
+	 */
+	public void discard() throws IOException {
+		if (bytes == null) {
+			Files.deleteIfExists(file);
+		} else {
+			bytes.reset();
+		}
+	}
+
+	/**
+	 * @return payload written to memory or content of the file
+	 */
+	public byte[] toByteArray() throws IOException {
+		return bytes != null ? bytes.toByteArray() : Files.readAllBytes(file);
+	}
+
+}
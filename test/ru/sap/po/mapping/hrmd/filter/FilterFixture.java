@@ -0,0 +1,78 @@
+package ru.sap.po.mapping.hrmd.filter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ru.sap.po.mapping.hrmd.filter.config.TestFilterConfig;
+import ru.sap.po.mapping.hrmd.filter.local.LocalDynamicConfiguration;
+
+/**
+ * Mapping with test configuration and Dynamic Configuration of receiver determination for tests:
+ * company codes 1000 and 3000 go to <tt>SYS_A</tt>, 2000 goes to <tt>SYS_B</tt>, 4000 has no receiver.
+ *
+ * Key date is fixed, so results don't depend on the day the tests run.
+ */
+final class FilterFixture {
+
+	static final String SYS_A = "SYS_A";
+	static final String SYS_B = "SYS_B";
+	static final String KEY_DATE = "validity.key.date=20240601";
+
+	static final LocalDynamicConfiguration DYNAMIC_CONFIGURATION = new LocalDynamicConfiguration()
+			.put("urn:ru:SAP:CustomNamespace:10", "R1000", SYS_A)
+			.put("urn:ru:SAP:CustomNamespace:10", "R2000", SYS_B)
+			.put("urn:ru:SAP:CustomNamespace:10", "R3000", SYS_A);
+
+	private FilterFixture() {
+	}
+
+	/**
+	 * @param settings  properties as <tt>key=value</tt> strings on top of "filter.properties" and {@link #KEY_DATE}
+	 *
+	 * @return mapping, which reads the same configuration for each message
+	 */
+	static HRMD_to_HRMD_filter mapping(String... settings) {
+		String[] all = new String[settings.length + 1];
+		all[0] = KEY_DATE;
+		System.arraycopy(settings, 0, all, 1, settings.length);
+		return new HRMD_to_HRMD_filter(MappingTrace.NONE, () -> TestFilterConfig.of(all));
+	}
+
+	/**
+	 * @return target message of the receiver
+	 */
+	static String filter(String payload, String receiver, String... settings) throws IOException {
+		return filter(payload.getBytes(StandardCharsets.UTF_8), receiver, settings);
+	}
+
+	static String filter(byte[] payload, String receiver, String... settings) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream(payload.length);
+		mapping(settings).filter(new ByteArrayInputStream(payload), os, receiver, DYNAMIC_CONFIGURATION);
+		return new String(os.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return target messages of one fan-out run by receiver
+	 */
+	static Map<String, String> fanOut(byte[] payload, String[] receivers, String... settings) throws IOException {
+		Map<String, ByteArrayOutputStream> targets = new LinkedHashMap<>();
+		for (String receiver : receivers) targets.put(receiver, new ByteArrayOutputStream(payload.length));
+		mapping(settings).filter(new ByteArrayInputStream(payload), targets, DYNAMIC_CONFIGURATION);
+
+		Map<String, String> messages = new LinkedHashMap<>();
+		targets.forEach((receiver, os) -> messages.put(receiver, new String(os.toByteArray(), StandardCharsets.UTF_8)));
+		return messages;
+	}
+
+	static String[] with(String[] settings, String... more) {
+		String[] all = Arrays.copyOf(settings, settings.length + more.length);
+		System.arraycopy(more, 0, all, settings.length, more.length);
+		return all;
+	}
+
+}
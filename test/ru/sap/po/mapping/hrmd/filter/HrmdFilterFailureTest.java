@@ -0,0 +1,156 @@
+package ru.sap.po.mapping.hrmd.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static ru.sap.po.mapping.hrmd.filter.FilterFixture.DYNAMIC_CONFIGURATION;
+import static ru.sap.po.mapping.hrmd.filter.FilterFixture.KEY_DATE;
+import static ru.sap.po.mapping.hrmd.filter.FilterFixture.SYS_A;
+import static ru.sap.po.mapping.hrmd.filter.FilterFixture.SYS_B;
+import static ru.sap.po.mapping.hrmd.filter.FilterFixture.mapping;
+import static ru.sap.po.mapping.hrmd.filter.FilterFixture.with;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import ru.sap.po.mapping.hrmd.filter.config.TestFilterConfig;
+import ru.sap.po.mapping.hrmd.filter.local.LocalTrace;
+
+/**
+ * A message, which can't be read to the end, must fail in every processing mode instead of being delivered
+ * with the part written before the failure. The mapping throws {@link IOException} then, which
+ * <code>transform</code> turns into <code>StreamTransformationException</code>.
+ * Memory-bounded mode must not leave it's temporary file then.
+ */
+public class HrmdFilterFailureTest {
+
+	private static final String[][] MODES = {
+			{},
+			{"processing.mode=stax"},
+			{"processing.mode=stax", "parallel.batch.size=8", "parallel.threshold=2"},
+			{"processing.mode=stax", "parallel.idoc.window=3"}
+	};
+
+	/**
+	 * Modes of a message larger than the threshold of 1 MB, smaller messages are processed in the configured mode.
+	 */
+	private static final String[][] MEMORY_BOUNDED_MODES = {
+			{"memory.bounded.threshold.mb=1"},
+			{"memory.bounded.threshold.mb=1", "memory.bounded.spill=false"},
+			{"memory.bounded.threshold.mb=1", "processing.mode=stax", "parallel.batch.size=8", "parallel.threshold=2"}
+	};
+
+	@Test
+	public void truncatedMessageFailsInAllModes() throws IOException {
+		byte[] huge = truncated(1500);
+		assertTrue(huge.length > 1024 * 1024);
+
+		for (byte[] payload : new byte[][] {truncated(200), huge}) {
+			for (String[] mode : MODES) assertFails(payload, mode);
+		}
+		for (String[] mode : MEMORY_BOUNDED_MODES) assertFails(huge, mode);
+	}
+
+	@Test
+	public void failedSpillIsNotTransferredAndIsDeleted() throws IOException {
+		long spillFiles = countSpillFiles();
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		assertThrows(IOException.class, () -> mapping("memory.bounded.threshold.mb=1")
+				.filter(new ByteArrayInputStream(truncated(1500)), os, SYS_A, DYNAMIC_CONFIGURATION));
+		assertEquals(0, os.size());
+		assertEquals(spillFiles, countSpillFiles());
+	}
+
+	@Test
+	public void hugeMessageIsDetectedWithoutAvailableBytes() throws IOException {
+		byte[] payload = new HrmdPayloadGenerator().persons(1500).idocs(3).toByteArray();
+		assertTrue(payload.length > 1024 * 1024);
+		String expected = FilterFixture.filter(payload, SYS_A);
+
+		// DOM mode reads the message up to the threshold, stax mode streams it with parallel IDocs up to the threshold
+		LocalTrace trace = LocalTrace.collecting();
+		assertEquals(expected, filterWithoutAvailableBytes(payload, trace));
+		assertTrue(trace.getMessages().stream().anyMatch(message -> message.contains("memory-bounded mode")));
+
+		trace = LocalTrace.collecting();
+		assertEquals(expected, filterWithoutAvailableBytes(payload, trace, "processing.mode=stax", "parallel.idoc.window=3"));
+		assertFalse(trace.getMessages().stream().anyMatch(message -> message.contains("memory-bounded mode")));
+	}
+
+	@Test
+	public void fanOutFailsAsWhole() throws IOException {
+		Map<String, OutputStream> targets = new LinkedHashMap<>();
+		targets.put(SYS_A, new ByteArrayOutputStream());
+		targets.put(SYS_B, new ByteArrayOutputStream());
+		assertThrows(IOException.class, () ->
+				mapping().filter(new ByteArrayInputStream(truncated(200)), targets, DYNAMIC_CONFIGURATION));
+
+		// Target message of the second receiver can't be written
+		byte[] payload = new HrmdPayloadGenerator().persons(200).toByteArray();
+		targets.put(SYS_B, new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				throw new IOException("Disk is full");
+			}
+		});
+		assertThrows(IOException.class, () ->
+				mapping().filter(new ByteArrayInputStream(payload), targets, DYNAMIC_CONFIGURATION));
+	}
+
+	private static void assertFails(byte[] payload, String[] mode) {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		assertThrows(Arrays.toString(mode), IOException.class, () ->
+				mapping(mode).filter(new ByteArrayInputStream(payload), os, SYS_A, DYNAMIC_CONFIGURATION));
+	}
+
+	/**
+	 * @return target message of a source stream, which never reports available bytes, like a network stream
+	 */
+	private static String filterWithoutAvailableBytes(byte[] payload, LocalTrace trace, String... settings)
+			throws IOException {
+		InputStream is = new FilterInputStream(new ByteArrayInputStream(payload)) {
+			@Override
+			public int available() {
+				return 0;
+			}
+		};
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		new HRMD_to_HRMD_filter(trace, () -> TestFilterConfig.of(with(
+				new String[] {KEY_DATE, "memory.bounded.threshold.mb=1"}, settings)))
+				.filter(is, os, SYS_A, DYNAMIC_CONFIGURATION);
+		return os.toString("UTF-8");
+	}
+
+	/**
+	 * @return generated message cut in the middle of a person
+	 */
+	private static byte[] truncated(int persons) throws IOException {
+		byte[] payload = new HrmdPayloadGenerator().persons(persons).idocs(3).toByteArray();
+		return Arrays.copyOf(payload, payload.length * 3 / 4);
+	}
+
+	private static long countSpillFiles() throws IOException {
+		long count = 0;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(System.getProperty("java.io.tmpdir")),
+				"hrmd-filter-*.xml")) {
+			for (Path ignored : files) count++;
+		}
+		return count;
+	}
+
+}
@@ -0,0 +1,180 @@
+package ru.sap.po.mapping.hrmd.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static ru.sap.po.mapping.hrmd.filter.FilterFixture.DYNAMIC_CONFIGURATION;
+import static ru.sap.po.mapping.hrmd.filter.FilterFixture.SYS_A;
+import static ru.sap.po.mapping.hrmd.filter.FilterFixture.SYS_B;
+import static ru.sap.po.mapping.hrmd.filter.FilterFixture.fanOut;
+import static ru.sap.po.mapping.hrmd.filter.FilterFixture.filter;
+import static ru.sap.po.mapping.hrmd.filter.FilterFixture.mapping;
+import static ru.sap.po.mapping.hrmd.filter.FilterFixture.with;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.junit.Test;
+
+/**
+ * Every processing mode must produce the same target message as DOM mode, and both must be byte-equivalent
+ * to the output of the identity {@link javax.xml.transform.Transformer}, which the mapping used to serialize
+ * target message before. Persons processed in parallel must be counted in statistics of the message as well.
+ * Memory-bounded mode must produce the same target message too, as well as a message smaller than it's threshold.
+ * Fan-out to several receivers must produce the same target messages as one run per receiver,
+ * with or without infotype profiles of receivers.
+ * Messages are generated by {@link HrmdPayloadGenerator} with several time slices, IDocs, organizational objects
+ * and company codes without receiver.
+ */
+public class HrmdFilterModesTest {
+
+	private static final String[] RECEIVERS = {SYS_A, SYS_B};
+
+	private static final String[] DEFAULT_PROFILES = {};
+
+	private static final String[] RECEIVER_PROFILES = {
+			"receiver.SYS_B.employee.infotypes=0000,0001", "receiver.SYS_B.management.infotypes=1000"
+	};
+
+	/**
+	 * Profile without infotype 0001, by which persons are routed all the same.
+	 */
+	private static final String[] PROFILES_WITHOUT_0001 = {"receiver.SYS_B.employee.infotypes=0000,0002"};
+
+	private static final String[] STAX = {"processing.mode=stax"};
+
+	private static final String[] PARALLEL_PERSONS = with(STAX, "parallel.batch.size=8", "parallel.threshold=2");
+
+	private static final String[][] STREAMING_MODES = {
+			STAX,
+			PARALLEL_PERSONS,
+			with(STAX, "parallel.idoc.window=3"),
+			with(PARALLEL_PERSONS, "parallel.idoc.window=3", "parallel.pool.size=2")
+	};
+
+	/**
+	 * Message without persons, so nothing of it is dropped, with markup the serializer must write the same way
+	 * as the identity transformer: comments, processing instructions, CDATA sections, unsorted attributes,
+	 * escaped characters, carriage returns, supplementary characters and empty elements.
+	 */
+	private static final String MARKUP = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<!-- HRMD_A09 -->\n"
+			+ "<HRMD_A09 xmlns:sap=\"urn:sap\" b=\"2\" a=\"1 &amp; &lt;2&gt; &quot;3&quot;&#9;&#10;\"><IDOC BEGIN=\"1\">\n"
+			+ "\t<EDI_DC40 SEGMENT=\"1\"><TABNAM>EDI_DC40</TABNAM><MESTYP>HRMD_A</MESTYP><REFINT/></EDI_DC40>\n"
+			+ "\t<?sap-pi keep?>\n"
+			+ "\t<E1PITYP SEGMENT=\"1\"><OBJID>50000001</OBJID><INFTY>1000</INFTY>"
+			+ "<E1P1000 SEGMENT=\"1\"><STEXT>R&amp;D &gt; \"Sales\" 'East' 😀 éя</STEXT>"
+			+ "<SHORT><![CDATA[<raw> & ]]></SHORT><NOTE>line&#13;\r\nnext</NOTE><EMPTY></EMPTY></E1P1000></E1PITYP>\n"
+			+ "</IDOC></HRMD_A09>\n<!-- end -->";
+
+	private static List<byte[]> payloads() throws IOException {
+		return Arrays.asList(
+				new HrmdPayloadGenerator().persons(200).toByteArray(),
+				new HrmdPayloadGenerator().persons(300).idocs(7).slices(3).orgShare(0.2)
+						.companyCodes("1000:3,2000:2,3000,4000").seed(2).toByteArray(),
+				new HrmdPayloadGenerator().persons(150).idocs(2).nameLength(1, 20)
+						.employeeInfotypes("0000", "0001", "0002", "0008").seed(3).toByteArray());
+	}
+
+	@Test
+	public void streamingModesMatchDomMode() throws IOException {
+		for (byte[] payload : payloads()) {
+			for (String[] profiles : new String[][] {DEFAULT_PROFILES, RECEIVER_PROFILES, PROFILES_WITHOUT_0001}) {
+				for (String receiver : RECEIVERS) {
+					String expected = filter(payload, receiver, profiles);
+					for (String[] mode : STREAMING_MODES) {
+						assertEquals(Arrays.toString(mode) + " for " + receiver, expected,
+								filter(payload, receiver, with(profiles, mode)));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void parallelPersonsAreCounted() throws IOException {
+		byte[] payload = payloads().get(1);
+		for (String receiver : RECEIVERS) {
+			String expected = persons(payload, receiver);
+			for (String[] mode : STREAMING_MODES) {
+				assertEquals(Arrays.toString(mode), expected, persons(payload, receiver, mode));
+			}
+		}
+	}
+
+	@Test
+	public void memoryBoundedModeMatchesDomMode() throws IOException {
+		// Larger than the threshold of 1 MB, so it is streamed, and smaller one, which is processed from it's head
+		byte[] huge = new HrmdPayloadGenerator().persons(1500).idocs(3).slices(2).toByteArray();
+		byte[] small = new HrmdPayloadGenerator().persons(50).toByteArray();
+		assertTrue(huge.length > 1024 * 1024);
+
+		for (byte[] payload : new byte[][] {huge, small}) {
+			for (String receiver : RECEIVERS) {
+				String expected = filter(payload, receiver);
+				assertEquals(expected, filter(payload, receiver, "memory.bounded.threshold.mb=1"));
+				assertEquals(expected, filter(payload, receiver, "memory.bounded.threshold.mb=1", "memory.bounded.spill=false"));
+				assertEquals(expected, filter(payload, receiver, "memory.bounded.threshold.mb=1", "processing.mode=stax",
+						"parallel.batch.size=8", "parallel.threshold=2", "parallel.idoc.window=3"));
+			}
+		}
+	}
+
+	@Test
+	public void fanOutMatchesRunPerReceiver() throws IOException {
+		for (byte[] payload : payloads()) {
+			for (String[] profiles : new String[][] {DEFAULT_PROFILES, RECEIVER_PROFILES, PROFILES_WITHOUT_0001}) {
+				Map<String, String> targets = fanOut(payload, RECEIVERS, profiles);
+				for (String receiver : RECEIVERS) {
+					assertEquals(Arrays.toString(profiles) + " for " + receiver, filter(payload, receiver, profiles),
+							targets.get(receiver));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void targetMessageIsByteEquivalentToIdentityTransformer() throws Exception {
+		for (byte[] payload : payloads()) {
+			for (String receiver : RECEIVERS) {
+				String target = filter(payload, receiver);
+				assertEquals(receiver, transform(target), target);
+			}
+		}
+
+		String expected = transform(MARKUP);
+		assertEquals(expected, filter(MARKUP, SYS_A));
+		for (String[] mode : STREAMING_MODES) {
+			assertEquals(Arrays.toString(mode), expected, filter(MARKUP, SYS_A, mode));
+		}
+	}
+
+	/**
+	 * @return numbers of kept and dropped persons of the message statistics
+	 */
+	private static String persons(byte[] payload, String receiver, String... settings) throws IOException {
+		HRMD_to_HRMD_filter mapping = mapping(settings);
+		mapping.filter(new ByteArrayInputStream(payload), new ByteArrayOutputStream(), receiver, DYNAMIC_CONFIGURATION);
+		String summary = mapping.getStatistics().getSummary(0, 0);
+		return summary.substring(summary.indexOf("persons kept"));
+	}
+
+	/**
+	 * @return message parsed to DOM and serialized with the identity transformer, as the mapping did before
+	 */
+	private static String transform(String xml) throws Exception {
+		StringWriter writer = new StringWriter();
+		TransformerFactory.newInstance().newTransformer().transform(new DOMSource(XmlFactories.documentBuilder()
+				.parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)))), new StreamResult(writer));
+		return writer.toString();
+	}
+
+}
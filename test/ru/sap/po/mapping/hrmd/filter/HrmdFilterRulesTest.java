@@ -0,0 +1,202 @@
+package ru.sap.po.mapping.hrmd.filter;
+
+import static org.junit.Assert.assertEquals;
+import static ru.sap.po.mapping.hrmd.filter.FilterFixture.SYS_A;
+import static ru.sap.po.mapping.hrmd.filter.FilterFixture.SYS_B;
+import static ru.sap.po.mapping.hrmd.filter.FilterFixture.fanOut;
+import static ru.sap.po.mapping.hrmd.filter.FilterFixture.filter;
+import static ru.sap.po.mapping.hrmd.filter.FilterFixture.with;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+/**
+ * Filtration rules on small hand-made messages: routing of persons by company code valid on key date
+ * (or by the nearest future one), field masks, full name correction and infotype profiles of receivers,
+ * which must not change routing of persons.
+ * Each rule is checked in DOM mode, in streaming mode and in streaming mode with parallel persons and IDocs.
+ */
+public class HrmdFilterRulesTest {
+
+	private static final String[] STAX = {"processing.mode=stax"};
+
+	private static final String[][] MODES = {
+			{},
+			STAX,
+			with(STAX, "parallel.batch.size=2", "parallel.threshold=1", "parallel.idoc.window=2")
+	};
+
+	@Test
+	public void personIsRoutedByCompanyCodeValidOnKeyDate() throws Exception {
+		String message = message(person("00000001",
+				infotype("0001",
+						segment("0001", "20200101", "20231231", "<BUKRS>2000</BUKRS>"),
+						segment("0001", "20240101", "99991231", "<BUKRS>1000</BUKRS>"))));
+
+		for (String[] mode : MODES) {
+			assertEquals(1, count(filter(message, SYS_A, mode), "//E1PLOGI[OBJID='00000001']"));
+			assertEquals(0, count(filter(message, SYS_B, mode), "//E1PLOGI[OBJID='00000001']"));
+
+			String[] lastYear = with(mode, "validity.key.date=20230601");
+			assertEquals(0, count(filter(message, SYS_A, lastYear), "//E1PLOGI[OBJID='00000001']"));
+			assertEquals(1, count(filter(message, SYS_B, lastYear), "//E1PLOGI[OBJID='00000001']"));
+		}
+	}
+
+	@Test
+	public void nearestFutureSegmentIsUsedWithoutSegmentValidOnKeyDate() throws Exception {
+		String message = message(
+				// Hired after key date, transferred to another company code later
+				person("00000002",
+						infotype("0001",
+								segment("0001", "20260101", "99991231", "<BUKRS>1000</BUKRS><ENAME>x</ENAME>"),
+								segment("0001", "20250101", "20251231", "<BUKRS>2000</BUKRS><ENAME>x</ENAME>")),
+						infotype("0002",
+								segment("0002", "20250101", "99991231", "<NACHN>Petrov</NACHN><VORNA>petr</VORNA><MIDNM>Petrovich</MIDNM>"))),
+				// Left before key date, so there's neither valid nor future segment
+				person("00000003",
+						infotype("0001",
+								segment("0001", "20200101", "20231231", "<BUKRS>2000</BUKRS>"))));
+
+		for (String[] mode : MODES) {
+			String sysA = filter(message, SYS_A, mode);
+			String sysB = filter(message, SYS_B, mode);
+			assertEquals(0, count(sysA, "//E1PLOGI[OBJID='00000002']"));
+			assertEquals(1, count(sysB, "//E1PLOGI[OBJID='00000002']"));
+			assertEquals("Petrov P. P.", text(sysB, "//E1PLOGI[OBJID='00000002']//E1P0001[BEGDA='20250101']/ENAME"));
+
+			// Person without active segments is kept for all receivers
+			assertEquals(1, count(sysA, "//E1PLOGI[OBJID='00000003']"));
+			assertEquals(1, count(sysB, "//E1PLOGI[OBJID='00000003']"));
+		}
+
+		Map<String, String> targets = fanOut(message.getBytes(StandardCharsets.UTF_8), new String[] {SYS_A, SYS_B});
+		assertEquals(filter(message, SYS_A), targets.get(SYS_A));
+		assertEquals(filter(message, SYS_B), targets.get(SYS_B));
+	}
+
+	@Test
+	public void fieldsAreRemovedAndFullNameIsCorrected() throws Exception {
+		String message = message(person("00000004",
+				infotype("0001",
+						segment("0001", "20200101", "99991231",
+								"<BUKRS>1000</BUKRS><KOSTL>0000100100</KOSTL><PLANS>50000001</PLANS><ENAME>x</ENAME><SNAME>X</SNAME>")),
+				infotype("0002",
+						segment("0002", "20200101", "20231231", "<NACHN>Sidorova</NACHN><VORNA>anna</VORNA>"),
+						segment("0002", "20240101", "99991231", "<NACHN> Ivanova </NACHN><VORNA>anna</VORNA>"
+								+ "<MIDNM>ivanovna</MIDNM><NACHN_40>Ivanova</NACHN_40><GBDAT>19800101</GBDAT>"
+								+ "<E1Q0002 SEGMENT=\"1\"><FNAMR_45>Anna</FNAMR_45><OTHER_45>1</OTHER_45></E1Q0002>")),
+				infotype("0008",
+						segment("0008", "20200101", "99991231", "<FIELD1>1</FIELD1>"))));
+
+		for (String[] mode : MODES) {
+			for (String[] settings : new String[][] {mode, with(mode, "segment.E1P0001.remove.fields=PLANS")}) {
+				String target = filter(message, SYS_A, settings);
+				String active = "//E1PLOGI[OBJID='00000004']//E1P0002[BEGDA='20240101']";
+
+				assertEquals("Ivanova", text(target, active + "/NACHN"));
+				assertEquals("A.", text(target, active + "/VORNA"));
+				assertEquals("I.", text(target, active + "/MIDNM"));
+				assertEquals(0, count(target, active + "/NACHN_40"));
+				assertEquals(1, count(target, active + "/GBDAT"));
+				assertEquals(0, count(target, active + "/E1Q0002/FNAMR_45"));
+				assertEquals(1, count(target, active + "/E1Q0002/OTHER_45"));
+
+				assertEquals("Ivanova A. I.", text(target, "//E1P0001/ENAME"));
+				assertEquals("IVANOVA A. I.", text(target, "//E1P0001/SNAME"));
+				assertEquals(0, count(target, "//E1P0001/KOSTL"));
+				assertEquals(settings == mode ? 1 : 0, count(target, "//E1P0001/PLANS"));
+				assertEquals(0, count(target, "//E1PITYP[INFTY='0008']"));
+			}
+		}
+	}
+
+	@Test
+	public void receiverProfilesApplyToInfotypesOutsideOfPersons() throws Exception {
+		String message = message(
+				infotype("1000", segment("1000", "20200101", "99991231", "<STEXT>Department</STEXT>")),
+				infotype("1001", segment("1001", "20200101", "99991231", "<SCLAS>S</SCLAS>")),
+				person("00000005",
+						infotype("0001", segment("0001", "20200101", "99991231", "<BUKRS>2000</BUKRS>")),
+						infotype("0002", segment("0002", "20200101", "99991231", "<NACHN>Ivanov</NACHN>"))));
+		String[] profiles = {"receiver.SYS_B.employee.infotypes=0001", "receiver.SYS_B.management.infotypes=1000"};
+
+		for (String[] mode : MODES) {
+			String sysA = filter(message, SYS_A, with(profiles, mode));
+			String sysB = filter(message, SYS_B, with(profiles, mode));
+			assertEquals(2, count(sysA, "/HRMD_A09/IDOC/E1PITYP"));
+			assertEquals(1, count(sysB, "/HRMD_A09/IDOC/E1PITYP[INFTY='1000']"));
+			assertEquals(0, count(sysB, "/HRMD_A09/IDOC/E1PITYP[INFTY='1001']"));
+			assertEquals(0, count(sysB, "//E1PITYP[INFTY='0002']"));
+		}
+
+		Map<String, String> targets = fanOut(message.getBytes(StandardCharsets.UTF_8), new String[] {SYS_A, SYS_B}, profiles);
+		assertEquals(filter(message, SYS_A, profiles), targets.get(SYS_A));
+		assertEquals(filter(message, SYS_B, profiles), targets.get(SYS_B));
+	}
+
+	@Test
+	public void personIsRoutedWithoutPassedInfotype0001() throws Exception {
+		String message = message(
+				person("00000006",
+						infotype("0001", segment("0001", "20200101", "99991231", "<BUKRS>1000</BUKRS>")),
+						infotype("0002", segment("0002", "20200101", "99991231", "<NACHN>Ivanov</NACHN>"))),
+				person("00000007",
+						infotype("0001", segment("0001", "20200101", "99991231", "<BUKRS>2000</BUKRS>")),
+						infotype("0002", segment("0002", "20200101", "99991231", "<NACHN>Petrov</NACHN>"))));
+		String[] profiles = {"receiver.SYS_B.employee.infotypes=0002"};
+
+		for (String[] mode : MODES) {
+			String sysB = filter(message, SYS_B, with(profiles, mode));
+			assertEquals(0, count(sysB, "//E1PLOGI[OBJID='00000006']"));
+			assertEquals(1, count(sysB, "//E1PLOGI[OBJID='00000007']"));
+			assertEquals(0, count(sysB, "//E1PITYP[INFTY='0001']"));
+		}
+
+		Map<String, String> targets = fanOut(message.getBytes(StandardCharsets.UTF_8), new String[] {SYS_A, SYS_B}, profiles);
+		assertEquals(filter(message, SYS_A, profiles), targets.get(SYS_A));
+		assertEquals(filter(message, SYS_B, profiles), targets.get(SYS_B));
+	}
+
+	private static String message(String... objects) {
+		return "<?xml version=\"1.0\" encoding=\"UTF-8\"?><HRMD_A09><IDOC BEGIN=\"1\">"
+				+ "<EDI_DC40 SEGMENT=\"1\"><TABNAM>EDI_DC40</TABNAM><MESTYP>HRMD_A</MESTYP></EDI_DC40>"
+				+ String.join("", objects).replace("$OBJID", "00000000") + "</IDOC></HRMD_A09>";
+	}
+
+	private static String person(String objId, String... infotypes) {
+		return "<E1PLOGI SEGMENT=\"1\"><PLVAR>01</PLVAR><OTYPE>P</OTYPE><OBJID>" + objId + "</OBJID>"
+				+ String.join("", infotypes).replace("$OBJID", objId) + "</E1PLOGI>";
+	}
+
+	private static String infotype(String infty, String... segments) {
+		return "<E1PITYP SEGMENT=\"1\"><OBJID>$OBJID</OBJID><INFTY>" + infty + "</INFTY>"
+				+ String.join("", segments) + "</E1PITYP>";
+	}
+
+	private static String segment(String infty, String begda, String endda, String fields) {
+		return "<E1P" + infty + " SEGMENT=\"1\"><PERNR>$OBJID</PERNR><INFTY>" + infty + "</INFTY><ENDDA>" + endda
+				+ "</ENDDA><BEGDA>" + begda + "</BEGDA>" + fields + "</E1P" + infty + ">";
+	}
+
+	private static int count(String xml, String path) throws Exception {
+		return ((Double) XPathFactory.newInstance().newXPath().evaluate("count(" + path + ")", parse(xml),
+				XPathConstants.NUMBER)).intValue();
+	}
+
+	private static String text(String xml, String path) throws Exception {
+		return XPathFactory.newInstance().newXPath().evaluate(path, parse(xml));
+	}
+
+	private static Document parse(String xml) throws Exception {
+		return XmlFactories.documentBuilder().parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+	}
+
+}
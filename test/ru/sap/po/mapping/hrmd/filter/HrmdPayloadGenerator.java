@@ -0,0 +1,290 @@
+package ru.sap.po.mapping.hrmd.filter;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generator of synthetic HRMD_A09 IDoc messages for tests, benchmarks and load tests, so no production IDocs
+ * with personal data are needed.
+ *
+ * Message is written to a {@link Writer} person by person, so files of any size can be generated
+ * with constant memory. The following parameters can be configured:
+ * <ul>
+ *     <li>number of <code>E1PLOGI</code> objects and <code>IDOC</code> elements they are spread over;</li>
+ *     <li>infotype mix: employee infotypes of persons (<code>OTYPE</code> P) and management infotypes
+ *     of organizational objects (<code>OTYPE</code> O) with the share of such objects;</li>
+ *     <li>number of time slices per infotype - the last one is active (<code>ENDDA</code> 99991231);</li>
+ *     <li>weighted distribution of <code>BUKRS</code> over persons;</li>
+ *     <li>range of name lengths.</li>
+ * </ul>
+ * Generation is deterministic for the same seed.
+ *
+ * Run with <code>java -cp bench/target/benchmarks.jar ru.sap.po.mapping.hrmd.filter.HrmdPayloadGenerator &lt;file&gt; [option=value ...]</code>,
+ * where options are <tt>persons</tt>, <tt>idocs</tt>, <tt>employee.infotypes</tt>, <tt>management.infotypes</tt>,
+ * <tt>org.share</tt>, <tt>slices</tt>, <tt>bukrs</tt> (e.g. <tt>1000:50,2000:30,4000:20</tt>),
+ * <tt>name.length</tt> (e.g. <tt>4-12</tt>) and <tt>seed</tt>.
+ */
+public class HrmdPayloadGenerator {
+
+	private static final String LATIN = "abcdefghijklmnopqrstuvwxyz";
+	private static final String CYRILLIC = "абвгдежзиклмнопрстуфхцчшщэюя";
+
+	private int persons = 1000;
+	private int idocs = 1;
+	private List<String> employeeInfotypes = Arrays.asList("0000", "0001", "0002", "0003", "0008", "0105");
+	private List<String> managementInfotypes = Arrays.asList("1000", "1001", "1002", "1008");
+	private double orgShare = 0.0;
+	private int slices = 1;
+	private String[] companyCodes = {"1000", "2000", "3000", "4000"};
+	private int[] companyCodeWeights = {1, 1, 1, 1};
+	private int minNameLength = 4;
+	private int maxNameLength = 10;
+	private long seed = 1;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("Usage: HrmdPayloadGenerator <file> [option=value ...]");
+			System.exit(1);
+		}
+
+		HrmdPayloadGenerator generator = new HrmdPayloadGenerator();
+		for (int i = 1; i < args.length; i++) {
+			int separator = args[i].indexOf('=');
+			if (separator < 0) throw new IllegalArgumentException("Option must be set as option=value: " + args[i]);
+			generator.set(args[i].substring(0, separator), args[i].substring(separator + 1));
+		}
+
+		Path file = Paths.get(args[0]);
+		long start = System.nanoTime();
+		try (OutputStream os = Files.newOutputStream(file)) {
+			generator.generate(os);
+		}
+		System.out.printf("Generated %d objects (%d MB) to %s in %d ms%n", generator.persons,
+				Files.size(file) / (1024 * 1024), file, (System.nanoTime() - start) / 1_000_000);
+	}
+
+	/**
+	 * Method sets generator parameter by it's name, see class description.
+	 */
+	HrmdPayloadGenerator set(String option, String value) {
+		switch (option) {
+			case "persons": return persons(Integer.parseInt(value));
+			case "idocs": return idocs(Integer.parseInt(value));
+			case "employee.infotypes": return employeeInfotypes(value.split(","));
+			case "management.infotypes": return managementInfotypes(value.split(","));
+			case "org.share": return orgShare(Double.parseDouble(value));
+			case "slices": return slices(Integer.parseInt(value));
+			case "bukrs": return companyCodes(value);
+			case "name.length":
+				String[] range = value.split("-");
+				return nameLength(Integer.parseInt(range[0]), Integer.parseInt(range[range.length - 1]));
+			case "seed": return seed(Long.parseLong(value));
+			default: throw new IllegalArgumentException("Unknown option: " + option);
+		}
+	}
+
+	HrmdPayloadGenerator persons(int persons) {
+		this.persons = persons;
+		return this;
+	}
+
+	HrmdPayloadGenerator idocs(int idocs) {
+		this.idocs = Math.max(1, idocs);
+		return this;
+	}
+
+	HrmdPayloadGenerator employeeInfotypes(String... infotypes) {
+		this.employeeInfotypes = Arrays.asList(infotypes);
+		return this;
+	}
+
+	HrmdPayloadGenerator managementInfotypes(String... infotypes) {
+		this.managementInfotypes = Arrays.asList(infotypes);
+		return this;
+	}
+
+	/**
+	 * @param orgShare  share of organizational objects with management infotypes from 0 to 1
+	 */
+	HrmdPayloadGenerator orgShare(double orgShare) {
+		this.orgShare = orgShare;
+		return this;
+	}
+
+	HrmdPayloadGenerator slices(int slices) {
+		this.slices = Math.max(1, slices);
+		return this;
+	}
+
+	/**
+	 * @param distribution  comma separated company codes with optional weights, e.g. <tt>1000:50,2000:30,4000</tt>
+	 */
+	HrmdPayloadGenerator companyCodes(String distribution) {
+		String[] entries = distribution.split(",");
+		companyCodes = new String[entries.length];
+		companyCodeWeights = new int[entries.length];
+		for (int i = 0; i < entries.length; i++) {
+			String[] entry = entries[i].trim().split(":");
+			companyCodes[i] = entry[0];
+			companyCodeWeights[i] = entry.length > 1 ? Integer.parseInt(entry[1]) : 1;
+		}
+		return this;
+	}
+
+	HrmdPayloadGenerator nameLength(int min, int max) {
+		this.minNameLength = Math.max(1, min);
+		this.maxNameLength = Math.max(this.minNameLength, max);
+		return this;
+	}
+
+	HrmdPayloadGenerator seed(long seed) {
+		this.seed = seed;
+		return this;
+	}
+
+	/**
+	 * @return generated message in memory, for small payloads of benchmarks
+	 */
+	byte[] toByteArray() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		generate(os);
+		return os.toByteArray();
+	}
+
+	/**
+	 * Method writes generated message to the given stream as UTF-8 XML, the stream is not closed.
+	 */
+	void generate(OutputStream os) throws IOException {
+		Writer w = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8), 1 << 16);
+		Random random = new Random(seed);
+		int totalWeight = 0;
+		for (int weight : companyCodeWeights) totalWeight += weight;
+
+		w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<HRMD_A09>\n");
+		int objectsPerIdoc = (persons + idocs - 1) / idocs;
+		int object = 0;
+		for (int idoc = 0; idoc < idocs; idoc++) {
+			w.write("\t<IDOC BEGIN=\"1\">\n");
+			w.write("\t\t<EDI_DC40 SEGMENT=\"1\"><TABNAM>EDI_DC40</TABNAM><DOCNUM>" + String.format("%016d", idoc + 1)
+					+ "</DOCNUM><IDOCTYP>HRMD_A09</IDOCTYP><MESTYP>HRMD_A</MESTYP><SNDPRN>HRPCLNT100</SNDPRN></EDI_DC40>\n");
+			for (int i = 0; i < objectsPerIdoc && object < persons; i++, object++) {
+				boolean org = random.nextDouble() < orgShare;
+				String companyCode = pickCompanyCode(random, totalWeight);
+				writeObject(w, random, org, String.format("%08d", 10000000 + object), companyCode);
+			}
+			w.write("\t</IDOC>\n");
+		}
+		w.write("</HRMD_A09>\n");
+		w.flush();
+	}
+
+	private String pickCompanyCode(Random random, int totalWeight) {
+		int value = random.nextInt(totalWeight);
+		for (int i = 0; i < companyCodes.length; i++) {
+			value -= companyCodeWeights[i];
+			if (value < 0) return companyCodes[i];
+		}
+		return companyCodes[companyCodes.length - 1];
+	}
+
+	private void writeObject(Writer w, Random random, boolean org, String objId, String companyCode) throws IOException {
+		String otype = org ? "O" : "P";
+		w.write("\t\t<E1PLOGI SEGMENT=\"1\">\n\t\t\t<PLVAR>01</PLVAR>\n\t\t\t<OTYPE>" + otype + "</OTYPE>\n\t\t\t<OBJID>"
+				+ objId + "</OBJID>\n\t\t\t<PROOF/>\n\t\t\t<OPERA>I</OPERA>\n");
+
+		// Person names are the same in all time slices of the person
+		String surname = name(random, true);
+		String name = name(random, false);
+		String middleName = name(random, false);
+
+		for (String infty : org ? managementInfotypes : employeeInfotypes) {
+			w.write("\t\t\t<E1PITYP SEGMENT=\"1\">\n\t\t\t\t<PLVAR>01</PLVAR>\n\t\t\t\t<OTYPE>" + otype + "</OTYPE>\n\t\t\t\t<OBJID>"
+					+ objId + "</OBJID>\n\t\t\t\t<INFTY>" + infty + "</INFTY>\n\t\t\t\t<BEGDA>19000101</BEGDA>\n\t\t\t\t<ENDDA>99991231</ENDDA>\n");
+			for (int slice = 0; slice < slices; slice++) {
+				boolean active = slice == slices - 1;
+				String begda = (2020 - slices + slice) + "0101";
+				String endda = active ? "99991231" : (2020 - slices + slice) + "1231";
+				w.write("\t\t\t\t<E1P" + infty + " SEGMENT=\"1\">\n");
+				field(w, "PERNR", objId);
+				field(w, "INFTY", infty);
+				field(w, "ENDDA", endda);
+				field(w, "BEGDA", begda);
+				field(w, "AEDTM", "20200115");
+				field(w, "UNAME", "HR_BATCH");
+				switch (infty) {
+					case "0001":
+						field(w, "BUKRS", active ? companyCode : pickCompanyCode(random, sum(companyCodeWeights)));
+						field(w, "WERKS", "0001");
+						field(w, "PERSG", "1");
+						field(w, "KOSTL", String.format("%010d", random.nextInt(1000000)));
+						field(w, "PLANS", String.format("%08d", 50000000 + random.nextInt(1000000)));
+						field(w, "ENAME", surname.trim() + " " + name);
+						field(w, "SNAME", (surname.trim() + " " + name).toUpperCase());
+						break;
+					case "0002":
+						field(w, "INITS", name.substring(0, 1) + middleName.substring(0, 1));
+						field(w, "NACHN", surname);
+						field(w, "VORNA", name);
+						field(w, "MIDNM", middleName);
+						field(w, "NACHN_40", surname.trim());
+						field(w, "VORNA_40", name);
+						field(w, "NCHMC", surname.trim().toUpperCase());
+						field(w, "VNAMC", name.toUpperCase());
+						field(w, "FNAMR", name);
+						field(w, "LNAMR", surname.trim());
+						field(w, "GBDAT", (1960 + random.nextInt(40)) + "0101");
+						w.write("\t\t\t\t\t<E1Q0002 SEGMENT=\"1\">\n");
+						w.write("\t\t\t\t\t\t<FNAMR_45>" + name + "</FNAMR_45>\n\t\t\t\t\t\t<LNAMR_45>" + surname.trim() + "</LNAMR_45>\n");
+						w.write("\t\t\t\t\t</E1Q0002>\n");
+						break;
+					default:
+						for (int f = 1; f <= 5; f++) field(w, "FIELD" + f, String.valueOf(random.nextInt(100000)));
+						if (org) field(w, "STEXT", "Department " + name(random, true).trim());
+						break;
+				}
+				w.write("\t\t\t\t</E1P" + infty + ">\n");
+			}
+			w.write("\t\t\t</E1PITYP>\n");
+		}
+		w.write("\t\t</E1PLOGI>\n");
+	}
+
+	/**
+	 * Method generates a capitalized name of random length in Latin or Cyrillic letters.
+	 * Surnames sometimes have surrounding whitespaces, which are trimmed by the mapping.
+	 */
+	private String name(Random random, boolean surname) {
+		String letters = random.nextBoolean() ? LATIN : CYRILLIC;
+		int length = minNameLength + random.nextInt(maxNameLength - minNameLength + 1);
+		StringBuilder sb = new StringBuilder(length + 2);
+		for (int i = 0; i < length; i++) {
+			char c = letters.charAt(random.nextInt(letters.length()));
+			sb.append(i == 0 ? Character.toUpperCase(c) : c);
+		}
+		if (surname && random.nextInt(10) == 0) sb.insert(0, ' ').append(' ');
+		return sb.toString();
+	}
+
+	private static void field(Writer w, String name, String value) throws IOException {
+		w.write("\t\t\t\t\t<" + name + ">" + value + "</" + name + ">\n");
+	}
+
+	private static int sum(int[] values) {
+		int sum = 0;
+		for (int value : values) sum += value;
+		return sum;
+	}
+
+}
@@ -0,0 +1,38 @@
+package ru.sap.po.mapping.hrmd.filter.config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Properties;
+
+/**
+ * Builds {@link FilterConfig} snapshots for tests: properties of <code>filter.properties</code> from mapping resources
+ * with the given settings on top of them, so each test states only the settings it depends on.
+ */
+public final class TestFilterConfig {
+
+    private TestFilterConfig() {
+    }
+
+    /**
+     * @param settings  properties as <tt>key=value</tt> strings, which override the ones from resources
+     *
+     * @return FilterConfig
+     */
+    public static FilterConfig of(String... settings) {
+        Properties properties = new Properties();
+        try (InputStream input = TestFilterConfig.class.getClassLoader().getResourceAsStream("filter.properties")) {
+            properties.load(input);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        for (String setting : settings) {
+            int separator = setting.indexOf('=');
+            if (separator < 0) throw new IllegalArgumentException("Setting must be set as key=value: " + setting);
+            properties.setProperty(setting.substring(0, separator), setting.substring(separator + 1));
+        }
+        return new FilterConfig(properties, 1, "test");
+    }
+
+}
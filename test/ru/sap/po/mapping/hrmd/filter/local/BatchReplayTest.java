@@ -0,0 +1,56 @@
+package ru.sap.po.mapping.hrmd.filter.local;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Output directory of {@link BatchReplay} must not be the input directory or inside of it,
+ * however the paths are written.
+ */
+public class BatchReplayTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void outputInsideInputIsRejected() throws IOException {
+		Path input = folder.newFolder("in").toPath();
+
+		assertTrue(BatchReplay.isInside(input, input));
+		assertTrue(BatchReplay.isInside(input.resolve("out"), input));
+		assertTrue(BatchReplay.isInside(input.resolve("out/SYS_A"), input));
+		assertTrue(BatchReplay.isInside(input.getParent().resolve("other/../in/out"), input));
+	}
+
+	@Test
+	public void outputInsideInputThroughLinkIsRejected() throws IOException {
+		Path input = folder.newFolder("in").toPath();
+		Path link = folder.getRoot().toPath().resolve("link");
+		try {
+			Files.createSymbolicLink(link, input);
+		} catch (UnsupportedOperationException | IOException ex) {
+			Assume.assumeNoException("Symbolic links are not supported", ex);
+		}
+
+		assertTrue(BatchReplay.isInside(link.resolve("out"), input));
+	}
+
+	@Test
+	public void outputNextToInputIsAccepted() throws IOException {
+		Path input = folder.newFolder("in").toPath();
+
+		assertFalse(BatchReplay.isInside(input.getParent().resolve("out"), input));
+		assertFalse(BatchReplay.isInside(input.getParent().resolve("in-out"), input));
+		assertFalse(BatchReplay.isInside(input.getParent(), input));
+	}
+
+}